@@ -11,6 +11,8 @@ import org.terasology.engine.logic.inventory.ItemComponent;
 import org.terasology.engine.registry.In;
 import org.terasology.gestalt.entitysystem.component.Component;
 import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
+import org.terasology.itempipes.controllers.PipeMetrics;
+import org.terasology.itempipes.controllers.PipeSystem;
 import org.terasology.itempipes.event.PipeInsertEvent;
 import org.terasology.module.inventory.components.InventoryComponent;
 import org.terasology.module.inventory.systems.InventoryManager;
@@ -23,6 +25,12 @@ public class InventoryInsertAction extends BaseComponentSystem {
     @In
     EntityManager entityManager;
 
+    @In
+    PipeSystem pipeSystem;
+
+    @In
+    PipeMetrics pipeMetrics;
+
     @ReceiveEvent
     public void onInvetoryInsert(PipeInsertEvent event, EntityRef entityRef, InventoryComponent inventoryComponent) {
         if (inventoryManager.giveItem(entityRef, EntityRef.NULL, event.getActor())) {
@@ -32,6 +40,9 @@ public class InventoryInsertAction extends BaseComponentSystem {
                     event.getActor().removeComponent(component.getClass());
                 }
             }
+            pipeSystem.removeFromPipe(event.getActor());
+            event.consume();
+            pipeMetrics.itemDelivered();
         }
     }
 }
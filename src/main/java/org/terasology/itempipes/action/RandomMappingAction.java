@@ -7,19 +7,31 @@ import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
 import org.terasology.engine.entitySystem.systems.RegisterMode;
 import org.terasology.engine.entitySystem.systems.RegisterSystem;
 import org.terasology.engine.math.Side;
+import org.terasology.engine.registry.In;
 import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
 import org.terasology.itempipes.components.PipeRandomMappingComponent;
+import org.terasology.itempipes.controllers.PipeRandomSystem;
 import org.terasology.itempipes.event.PipeMappingEvent;
 
-import java.util.Optional;
+import java.util.Set;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
 public class RandomMappingAction  extends BaseComponentSystem {
+    @In
+    PipeRandomSystem pipeRandomSystem;
+
     @ReceiveEvent(components = {PipeRandomMappingComponent.class})
     public void onSuctionPlaced(PipeMappingEvent event, EntityRef entityRef) {
-        Optional<Side> side = event.getOutputSides().stream().skip((int) (event.getOutputSides().size() * Math.random())).findFirst();
-        if (side.isPresent()) {
-            event.setOutputSide(side.get());
+        Set<Side> sides = event.getOutputSides();
+        if (sides.isEmpty()) {
+            return;
+        }
+        int index = pipeRandomSystem.getRandom().nextInt(sides.size());
+        for (Side side : sides) {
+            if (index-- == 0) {
+                event.setOutputSide(side);
+                break;
+            }
         }
     }
 }
@@ -3,43 +3,68 @@
 package org.terasology.itempipes.action;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.joml.Vector3ic;
 import org.terasology.engine.core.Time;
 import org.terasology.engine.entitySystem.entity.EntityManager;
 import org.terasology.engine.entitySystem.entity.EntityRef;
-import org.terasology.engine.entitySystem.event.EventPriority;
-import org.terasology.engine.entitySystem.event.Priority;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.engine.entitySystem.prefab.Prefab;
 import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
 import org.terasology.engine.entitySystem.systems.RegisterMode;
 import org.terasology.engine.entitySystem.systems.RegisterSystem;
+import org.terasology.engine.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.engine.logic.inventory.ItemComponent;
+import org.terasology.engine.logic.inventory.PickupComponent;
 import org.terasology.engine.logic.location.LocationComponent;
 import org.terasology.engine.math.Side;
-import org.terasology.engine.physics.CollisionGroup;
+import org.terasology.engine.physics.Physics;
 import org.terasology.engine.physics.StandardCollisionGroup;
-import org.terasology.engine.physics.components.TriggerComponent;
-import org.terasology.engine.physics.components.shapes.SphereShapeComponent;
-import org.terasology.engine.physics.events.CollideEvent;
 import org.terasology.engine.physics.events.ImpulseEvent;
 import org.terasology.engine.registry.In;
+import org.terasology.engine.registry.Share;
+import org.terasology.engine.utilities.random.Random;
+import org.terasology.engine.world.OnChangedBlock;
 import org.terasology.engine.world.block.BlockComponent;
-import org.terasology.engine.world.block.items.OnBlockItemPlaced;
 import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
-import org.terasology.itempipes.components.SuctionCollisionManifold;
 import org.terasology.itempipes.components.SuctionComponent;
+import org.terasology.itempipes.controllers.PipeMetrics;
+import org.terasology.itempipes.controllers.PipeRandomSystem;
 import org.terasology.itempipes.controllers.PipeSystem;
+import org.terasology.joml.geom.AABBf;
+import org.terasology.module.inventory.systems.InventoryUtils;
 
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 
+/**
+ * Pulls items lying around suction blocks towards them and inserts them into the pipes attached to the blocks.
+ * <p>
+ * Suction blocks are bucketed into a coarse grid. At a fixed interval the physics broadphase is asked for the items in
+ * range of each occupied cell, and every item found looks up the suction blocks in the cells around it, instead of each
+ * suction block tracking its surroundings with a physics trigger. The impulse is scaled by the time since the previous
+ * scan, so items are pulled equally hard whatever the frame rate. The pipes next to a suction block are looked up once
+ * and kept until a neighbouring block changes, so pulling an item does not allocate.
+ */
 @RegisterSystem(RegisterMode.AUTHORITY)
-public class SuctionAction  extends BaseComponentSystem {
+@Share(value = SuctionAction.class)
+public class SuctionAction extends BaseComponentSystem implements UpdateSubscriberSystem {
 
-    private static final Logger logger = LoggerFactory.getLogger(SuctionAction.class);
+    private static final int CELL_SIZE = 8;
+    private static final long SCAN_INTERVAL = 50;
+    /**
+     * Longest time a single scan makes up for, so items are not flung away after a hitch or the first scan.
+     */
+    private static final long MAX_SCAN_GAP = 4 * SCAN_INTERVAL;
+    private static final float IMPULSE = 2f;
 
     @In
     private Time time;
@@ -50,69 +75,297 @@ public class SuctionAction  extends BaseComponentSystem {
     @In
     PipeSystem teraPipeSystem;
 
-    @ReceiveEvent
-    public void onSuctionPlaced(OnBlockItemPlaced event, EntityRef entityRef) {
-        EntityRef blockEntity = event.getPlacedBlock();
-        SuctionComponent suctionComponent = blockEntity.getComponent(SuctionComponent.class);
-        if (suctionComponent == null || suctionComponent.collisionManifold != null) {
-            return;
-        }
+    @In
+    PipeRandomSystem pipeRandomSystem;
 
-        BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
+    @In
+    PipeMetrics pipeMetrics;
 
+    @In
+    Physics physics;
 
-        EntityRef ref = entityManager.create();
-        ref.setOwner(blockEntity);
+    private final TLongObjectMap<List<SuctionPoint>> cells = new TLongObjectHashMap<>();
+    private final Map<EntityRef, SuctionPoint> suctionPoints = Maps.newHashMap();
+    private final Map<Vector3ic, SuctionPoint> suctionPointsByPosition = Maps.newHashMap();
+    private final List<EntityRef> insertItems = Lists.newArrayList();
+    private final List<SuctionPoint> insertTargets = Lists.newArrayList();
+    private final Vector3f itemPosition = new Vector3f();
+    private final Vector3f scanImpulse = new Vector3f();
+    // the physics system applies the impulse while the event is sent, so it can be sent again with the next impulse
+    private final ImpulseEvent impulseEvent = new ImpulseEvent(scanImpulse);
+    private final Set<EntityRef> scannedItems = Sets.newHashSet();
+    private final AABBf scanArea = new AABBf();
+    private float maxRange;
+    private long lastScan;
+    private long nextScan;
 
-        SphereShapeComponent sphereShapeComponent = new SphereShapeComponent();
-        sphereShapeComponent.radius = suctionComponent.range;
+    @ReceiveEvent(components = {SuctionComponent.class})
+    public void onSuctionActivated(OnActivatedComponent event, EntityRef entityRef, BlockComponent blockComponent,
+                                   SuctionComponent suctionComponent) {
+        if (suctionComponent.collisionManifold != null) {
+            // trigger entity created by older versions of this module
+            suctionComponent.collisionManifold.destroy();
+            suctionComponent.collisionManifold = null;
+        }
+        addPoint(entityRef, blockComponent, suctionComponent);
+    }
 
-        TriggerComponent triggerComponent = new TriggerComponent();
-        triggerComponent.detectGroups = Lists.<CollisionGroup>newArrayList(StandardCollisionGroup.DEBRIS);
+    @ReceiveEvent(components = {SuctionComponent.class})
+    public void onSuctionChanged(OnChangedComponent event, EntityRef entityRef, BlockComponent blockComponent,
+                                 SuctionComponent suctionComponent) {
+        addPoint(entityRef, blockComponent, suctionComponent);
+    }
 
-        LocationComponent locationComponent = new LocationComponent();
-        locationComponent.setWorldPosition(new Vector3f(blockComponent.getPosition(new Vector3i())));
+    private void addPoint(EntityRef entityRef, BlockComponent blockComponent, SuctionComponent suctionComponent) {
+        Vector3i position = blockComponent.getPosition(new Vector3i());
+        SuctionPoint point = new SuctionPoint(entityRef, position, suctionComponent, pipeRandomSystem.createRandom(position));
+        SuctionPoint previous = suctionPoints.put(entityRef, point);
+        if (previous != null) {
+            cell(previous.position).remove(previous);
+        }
+        suctionPointsByPosition.put(point.position, point);
+        cell(point.position).add(point);
+        maxRange = Math.max(maxRange, point.range);
+    }
 
-        ref.addComponent(triggerComponent);
-        ref.addComponent(sphereShapeComponent);
-        ref.addComponent(locationComponent);
+    @ReceiveEvent(components = {SuctionComponent.class})
+    public void onSuctionDeactivated(BeforeDeactivateComponent event, EntityRef entityRef) {
+        SuctionPoint point = suctionPoints.remove(entityRef);
+        if (point != null) {
+            cell(point.position).remove(point);
+            suctionPointsByPosition.remove(point.position);
+        }
+    }
 
-        ref.addComponent(new SuctionCollisionManifold());
+    @ReceiveEvent(components = {BlockComponent.class})
+    public void onBlockChanged(OnChangedBlock event, EntityRef entityRef) {
+        if (suctionPoints.isEmpty()) {
+            return;
+        }
+        Vector3i neighbor = new Vector3i();
+        for (Side side : Side.values()) {
+            SuctionPoint point = suctionPointsByPosition.get(neighbor.set(event.getBlockPosition()).add(side.direction()));
+            if (point != null) {
+                point.inlets = null;
+            }
+        }
+    }
+
+    @Override
+    public void update(float delta) {
+        long now = time.getGameTimeInMs();
+        if (suctionPoints.isEmpty() || now < nextScan) {
+            return;
+        }
+        float strength = Math.min(now - lastScan, MAX_SCAN_GAP) / (float) SCAN_INTERVAL;
+        lastScan = now;
+        nextScan = now + SCAN_INTERVAL;
 
-        suctionComponent.collisionManifold = ref;
+        for (List<SuctionPoint> points : cells.valueCollection()) {
+            if (!points.isEmpty()) {
+                scan(points, now, strength);
+            }
+        }
+        scannedItems.clear();
 
+        for (int i = 0; i < insertItems.size(); i++) {
+            suck(insertItems.get(i), insertTargets.get(i), now);
+        }
+        insertItems.clear();
+        insertTargets.clear();
     }
 
-    @Priority(EventPriority.PRIORITY_HIGH)
-    @ReceiveEvent(components = {SuctionCollisionManifold.class})
-    public void onBump(CollideEvent event, EntityRef entity) {
+    /**
+     * Pulls the items within range of the suction blocks of one grid cell. Items already pulled during this scan through
+     * a neighbouring cell are skipped.
+     *
+     * @param strength the time since the previous scan in scan intervals, which the impulse is scaled by.
+     */
+    private void scan(List<SuctionPoint> points, long now, float strength) {
+        float range = 0;
+        scanArea.setMin(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE)
+            .setMax(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+        for (SuctionPoint point : points) {
+            range = Math.max(range, point.range);
+            scanArea.union(point.position.x(), point.position.y(), point.position.z());
+        }
+        scanArea.setMin(scanArea.minX - range, scanArea.minY - range, scanArea.minZ - range)
+            .setMax(scanArea.maxX + range, scanArea.maxY + range, scanArea.maxZ + range);
+        for (EntityRef item : physics.scanArea(scanArea, StandardCollisionGroup.DEBRIS, StandardCollisionGroup.DEFAULT)) {
+            if (!scannedItems.add(item) || !item.hasComponent(PickupComponent.class) || !item.hasComponent(ItemComponent.class)
+                || !item.hasComponent(LocationComponent.class)) {
+                continue;
+            }
+            if (pull(item, now, scanImpulse)) {
+                scanImpulse.mul(strength);
+                item.send(impulseEvent);
+            }
+        }
+    }
 
-        EntityRef owner = entity.getOwner();
-        if (!owner.exists()) {
-            owner.destroy();
-            return;
+    /**
+     * Pulls an item towards the nearest suction block in range. If the item is close enough and the block is ready,
+     * the item is queued for insertion into one of the pipes next to the block. Items reaching a block in the same scan
+     * as the one it inserts are queued as well, they only enter the pipe if they can be bundled with it.
+     *
+     * @param item a pickup item.
+     * @param now the current game time in ms.
+     * @param impulse receives the impulse to apply to the item.
+     * @return whether the item is in range of a suction block.
+     */
+    public boolean pull(EntityRef item, long now, Vector3f impulse) {
+        item.getComponent(LocationComponent.class).getWorldPosition(itemPosition);
+        if (!itemPosition.isFinite()) {
+            return false;
+        }
+        SuctionPoint point = findNearest(itemPosition, (int) ((maxRange + 1f) / CELL_SIZE) + 1);
+        if (point == null) {
+            return false;
+        }
+        impulse.set(point.position).sub(itemPosition);
+        if (impulse.lengthSquared() <= 1f && (point.lastTime + point.delay < now || point.lastTime == now)) {
+            point.lastTime = now;
+            insertItems.add(item);
+            insertTargets.add(point);
         }
+        impulse.normalize().mul(IMPULSE);
+        return true;
+    }
 
-        BlockComponent blockComponent = owner.getComponent(BlockComponent.class);
-        SuctionComponent suctionComponent = owner.getComponent(SuctionComponent.class);
+    private SuctionPoint findNearest(Vector3f position, int reach) {
+        int cx = Math.floorDiv(Math.round(position.x), CELL_SIZE);
+        int cy = Math.floorDiv(Math.round(position.y), CELL_SIZE);
+        int cz = Math.floorDiv(Math.round(position.z), CELL_SIZE);
+        SuctionPoint nearest = null;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int x = cx - reach; x <= cx + reach; x++) {
+            for (int y = cy - reach; y <= cy + reach; y++) {
+                for (int z = cz - reach; z <= cz + reach; z++) {
+                    List<SuctionPoint> points = cells.get(cellKey(x, y, z));
+                    if (points == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < points.size(); i++) {
+                        SuctionPoint point = points.get(i);
+                        float distance = position.distanceSquared(point.position.x(), point.position.y(), point.position.z());
+                        if (distance <= point.range * point.range && distance < nearestDistance) {
+                            nearest = point;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
 
-        LocationComponent locationComponent = event.getOtherEntity().getComponent(LocationComponent.class);
+    private void suck(EntityRef item, SuctionPoint point, long now) {
+        if (point.bundleTime == now) {
+            if (point.bundleItem.exists() && InventoryUtils.isSameItem(point.bundleItem, item)
+                && teraPipeSystem.insertIntoPipe(item, point.bundleInlet.pipe, point.bundleInlet.side, point.bundlePrefab, 1f)) {
+                pipeMetrics.itemSucked();
+            }
+            return;
+        }
+        SuctionComponent suctionComponent = point.entity.getComponent(SuctionComponent.class);
+        if (suctionComponent != null) {
+            suctionComponent.lastTime = point.lastTime;
+        }
+        if (point.inlets == null) {
+            point.inlets = findInlets(point.position);
+        }
+        if (point.inlets.length == 0) {
+            return;
+        }
+        Inlet inlet;
+        Prefab prefab;
+        if (point.roundRobin) {
+            // walks through every inlet before moving on to the next path of each
+            int pick = point.nextPick;
+            point.nextPick = (pick + 1) & Integer.MAX_VALUE;
+            inlet = point.inlets[pick % point.inlets.length];
+            prefab = inlet.prefabs[(pick / point.inlets.length) % inlet.prefabs.length];
+        } else {
+            inlet = point.inlets[point.random.nextInt(point.inlets.length)];
+            prefab = inlet.prefabs[point.random.nextInt(inlet.prefabs.length)];
+        }
+        PipeSystem.InsertResult result = teraPipeSystem.insert(item, inlet.pipe, inlet.side, prefab, 1f);
+        if (result != PipeSystem.InsertResult.REJECTED) {
+            pipeMetrics.itemSucked();
+        }
+        if (result == PipeSystem.InsertResult.INSERTED) {
+            point.bundleItem = item;
+            point.bundleInlet = inlet;
+            point.bundlePrefab = prefab;
+            point.bundleTime = now;
+        }
+    }
 
-        if (new Vector3f(blockComponent.getPosition(new Vector3i())).distanceSquared(locationComponent.getWorldPosition(new Vector3f())) <= 1f) {
-            if (suctionComponent.lastTime + suctionComponent.delay < time.getGameTimeInMs()) {
-                suctionComponent.lastTime = time.getGameTimeInMs();
-                Map<Side, EntityRef> pipes = teraPipeSystem.findPipes(blockComponent.getPosition(new Vector3i()));
-                Optional<Side> side =
-                    pipes.keySet().stream().skip((int) (pipes.keySet().size() * Math.random())).findFirst();
-                if (side.isPresent()) {
-                    EntityRef entityRef = pipes.get(side.get());
-                    Set<Prefab> prefabs = teraPipeSystem.findingMatchingPathPrefab(entityRef, side.get().reverse());
-                    Optional<Prefab> pick = prefabs.stream().skip((int) (prefabs.size() * Math.random())).findFirst();
-                    pick.ifPresent(prefab -> teraPipeSystem.insertIntoPipe(event.getOtherEntity(), entityRef,
-                        side.get().reverse(), prefab, 1f));
-                }
+    private Inlet[] findInlets(Vector3ic position) {
+        List<Inlet> inlets = Lists.newArrayList();
+        for (Map.Entry<Side, EntityRef> pipe : teraPipeSystem.findPipes(position).entrySet()) {
+            Side side = pipe.getKey().reverse();
+            Set<Prefab> prefabs = teraPipeSystem.findingMatchingPathPrefab(pipe.getValue(), side);
+            if (!prefabs.isEmpty()) {
+                inlets.add(new Inlet(pipe.getValue(), side, prefabs.toArray(new Prefab[0])));
             }
         }
-        event.getOtherEntity().send(new ImpulseEvent(new Vector3f(blockComponent.getPosition(new Vector3i())).sub(locationComponent.getWorldPosition(new Vector3f())).normalize().mul(2)));
+        return inlets.toArray(new Inlet[0]);
+    }
+
+    private List<SuctionPoint> cell(Vector3ic position) {
+        long key = cellKey(Math.floorDiv(position.x(), CELL_SIZE), Math.floorDiv(position.y(), CELL_SIZE),
+            Math.floorDiv(position.z(), CELL_SIZE));
+        List<SuctionPoint> points = cells.get(key);
+        if (points == null) {
+            points = Lists.newArrayList();
+            cells.put(key, points);
+        }
+        return points;
+    }
+
+    private static long cellKey(int x, int y, int z) {
+        return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+
+    private static final class SuctionPoint {
+        private final EntityRef entity;
+        private final Vector3ic position;
+        private final float range;
+        private final float delay;
+        private final boolean roundRobin;
+        private final Random random;
+        private long lastTime;
+        private int nextPick;
+        private Inlet[] inlets;
+        private EntityRef bundleItem;
+        private Inlet bundleInlet;
+        private Prefab bundlePrefab;
+        private long bundleTime = -1;
+
+        private SuctionPoint(EntityRef entity, Vector3ic position, SuctionComponent suctionComponent, Random random) {
+            this.entity = entity;
+            this.position = position;
+            this.range = suctionComponent.range;
+            this.delay = suctionComponent.delay;
+            this.roundRobin = suctionComponent.roundRobin;
+            this.random = random;
+            this.lastTime = suctionComponent.lastTime;
+        }
+    }
+
+    /**
+     * A pipe next to a suction block together with the paths an item can be inserted on from the suction block's side.
+     */
+    private static final class Inlet {
+        private final EntityRef pipe;
+        private final Side side;
+        private final Prefab[] prefabs;
+
+        private Inlet(EntityRef pipe, Side side, Prefab[] prefabs) {
+            this.pipe = pipe;
+            this.side = side;
+            this.prefabs = prefabs;
+        }
     }
 }
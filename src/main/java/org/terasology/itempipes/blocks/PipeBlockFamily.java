@@ -2,14 +2,15 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.itempipes.blocks;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import gnu.trove.map.TByteObjectMap;
-import gnu.trove.map.hash.TByteObjectHashMap;
+import org.joml.Vector3i;
 import org.joml.Vector3ic;
 import org.terasology.engine.entitySystem.entity.EntityRef;
 import org.terasology.engine.math.Rotation;
 import org.terasology.engine.math.Side;
 import org.terasology.engine.math.SideBitFlag;
+import org.terasology.engine.registry.CoreRegistry;
 import org.terasology.engine.world.block.Block;
 import org.terasology.engine.world.block.BlockBuilderHelper;
 import org.terasology.engine.world.block.BlockUri;
@@ -20,10 +21,12 @@ import org.terasology.engine.world.block.loader.BlockFamilyDefinition;
 import org.terasology.engine.world.block.shapes.BlockShape;
 import org.terasology.itempipes.components.PipeComponent;
 import org.terasology.itempipes.components.PipeConnectionComponent;
+import org.terasology.itempipes.controllers.PipeSystem;
 import org.terasology.gestalt.naming.Name;
 import org.terasology.segmentedpaths.blocks.PathFamily;
 
 import java.util.EnumSet;
+import java.util.Map;
 import java.util.Set;
 
 @RegisterBlockFamily("pipe")
@@ -40,8 +43,12 @@ public class PipeBlockFamily extends MultiConnectFamily implements PathFamily {
     public static final String FIVE_CONNECTIONS = "five_connections";
     public static final String SIX_CONNECTIONS = "all";
 
-    private TByteObjectMap<Rotation> rotationMap = new TByteObjectHashMap<>();
+    private static final int CONNECTION_COMBINATIONS = 64;
 
+    private final Map<Block, Byte> connectionsByBlock = Maps.newIdentityHashMap();
+    private final Map<BlockUri, Byte> connectionsByUri = Maps.newHashMap();
+    private final Rotation[] rotations = new Rotation[CONNECTION_COMBINATIONS];
+    private final Set<Side>[] sideSets = createSideSets();
 
     public PipeBlockFamily(BlockFamilyDefinition definition, BlockShape shape, BlockBuilderHelper blockBuilder) {
         super(definition, shape, blockBuilder);
@@ -74,17 +81,52 @@ public class PipeBlockFamily extends MultiConnectFamily implements PathFamily {
     }
 
     public EnumSet<Side> getSides(BlockUri blockUri) {
-        if (getURI().equals(blockUri.getFamilyUri())) {
-            try {
-                byte connections = Byte.parseByte(blockUri.getIdentifier().toString());
-                return SideBitFlag.getSides(connections);
-            } catch (IllegalArgumentException e) {
-                return null;
-            }
-        }
-        return null;
+        Byte connections = connectionsByUri.get(blockUri);
+        return connections != null ? SideBitFlag.getSides(connections) : null;
+    }
+
+    /**
+     * @param block a block of this family.
+     * @return the connection flags of the block, or -1 if the block does not belong to this family.
+     */
+    public byte getConnections(Block block) {
+        Byte connections = connectionsByBlock.get(block);
+        return connections != null ? connections : -1;
+    }
+
+    /**
+     * @param connections connection flags as built by {@link SideBitFlag}.
+     * @return the immutable set of sides for the flags.
+     */
+    public Set<Side> getSides(byte connections) {
+        return sideSets[connections];
+    }
+
+    /**
+     * @param block a block of this family.
+     * @return the immutable set of sides the block connects to, or null if the block does not belong to this family.
+     */
+    public Set<Side> getSides(Block block) {
+        byte connections = getConnections(block);
+        return connections >= 0 ? sideSets[connections] : null;
+    }
+
+    /**
+     * @param block a block of this family.
+     * @return the rotation the block was built with, or null if the block does not belong to this family.
+     */
+    public Rotation getRotation(Block block) {
+        byte connections = getConnections(block);
+        return connections >= 0 ? rotations[connections] : null;
     }
 
+    /**
+     * @param connections connection flags as built by {@link SideBitFlag}.
+     * @return the block of this family connecting to exactly the given sides.
+     */
+    public Block getBlockForConnections(byte connections) {
+        return blocks.get(connections);
+    }
 
     @Override
     public byte getConnectionSides() {
@@ -102,7 +144,9 @@ public class PipeBlockFamily extends MultiConnectFamily implements PathFamily {
             }
             Block block = blockBuilder.constructTransformedBlock(definition, name, rotation, new BlockUri(root,
                 new Name(String.valueOf(sideBits))), this);
-            rotationMap.put(sideBits, rotation);
+            this.rotations[sideBits] = rotation;
+            connectionsByBlock.put(block, sideBits);
+            connectionsByUri.put(block.getURI(), sideBits);
             blocks.put(sideBits, block);
             result.add(block);
         }
@@ -111,11 +155,17 @@ public class PipeBlockFamily extends MultiConnectFamily implements PathFamily {
 
     @Override
     protected boolean connectionCondition(Vector3ic blockLocation, Side connectSide) {
-        org.joml.Vector3i neighborLocation = new org.joml.Vector3i(blockLocation);
-        neighborLocation.add(connectSide.direction());
-
+        Vector3i neighborLocation = new Vector3i(blockLocation).add(connectSide.direction());
+        if (!worldProvider.isBlockRelevant(neighborLocation)) {
+            return false;
+        }
+        // the pipe system caches the answer per block, but only exists on the authority
+        PipeSystem pipeSystem = CoreRegistry.get(PipeSystem.class);
+        if (pipeSystem != null) {
+            return pipeSystem.isConnectable(neighborLocation);
+        }
         EntityRef neighborEntity = blockEntityRegistry.getBlockEntityAt(neighborLocation);
-        return neighborEntity != null && (neighborEntity.hasComponent(PipeComponent.class) || neighborEntity.hasComponent(PipeConnectionComponent.class));
+        return neighborEntity.hasComponent(PipeComponent.class) || neighborEntity.hasComponent(PipeConnectionComponent.class);
     }
 
 
@@ -126,14 +176,16 @@ public class PipeBlockFamily extends MultiConnectFamily implements PathFamily {
 
     @Override
     public Rotation getRotationFor(BlockUri blockUri) {
-        if (getURI().equals(blockUri.getFamilyUri())) {
-            try {
-                byte connections = Byte.parseByte(blockUri.getIdentifier().toString());
-                return rotationMap.get(connections);
-            } catch (IllegalArgumentException e) {
-                return null;
-            }
+        Byte connections = connectionsByUri.get(blockUri);
+        return connections != null ? rotations[connections] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Side>[] createSideSets() {
+        Set<Side>[] result = new Set[CONNECTION_COMBINATIONS];
+        for (int connections = 0; connections < CONNECTION_COMBINATIONS; connections++) {
+            result[connections] = Sets.immutableEnumSet(SideBitFlag.getSides((byte) connections));
         }
-        return null;
+        return result;
     }
 }
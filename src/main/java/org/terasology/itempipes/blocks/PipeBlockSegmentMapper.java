@@ -2,135 +2,184 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.itempipes.blocks;
 
-import com.google.common.collect.Maps;
-import org.joml.Quaternionf;
-import org.joml.Vector3f;
-import org.joml.Vector3i;
+import gnu.trove.map.TObjectIntMap;
 import org.terasology.engine.entitySystem.entity.EntityRef;
 import org.terasology.engine.entitySystem.prefab.Prefab;
-import org.terasology.engine.math.Rotation;
-import org.terasology.engine.math.Side;
-import org.terasology.engine.world.BlockEntityRegistry;
-import org.terasology.engine.world.block.BlockComponent;
-import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.itempipes.controllers.PipeMetrics;
+import org.terasology.itempipes.controllers.PipeNetworkSystem;
+import org.terasology.itempipes.controllers.PipeSystem;
 import org.terasology.itempipes.event.PipeMappingEvent;
+import org.terasology.itempipes.network.PipeItemKinds;
+import org.terasology.itempipes.network.PipeJunction;
+import org.terasology.itempipes.network.PipeNode;
+import org.terasology.itempipes.network.PipeRoutingPolicy;
+import org.terasology.itempipes.network.PipeTransition;
 import org.terasology.segmentedpaths.SegmentMeta;
-import org.terasology.segmentedpaths.blocks.PathFamily;
-import org.terasology.segmentedpaths.components.BlockMappingComponent;
-import org.terasology.segmentedpaths.components.PathDescriptorComponent;
-import org.terasology.segmentedpaths.controllers.PathFollowerSystem;
-import org.terasology.segmentedpaths.controllers.SegmentCacheSystem;
 import org.terasology.segmentedpaths.controllers.SegmentMapping;
-import org.terasology.segmentedpaths.controllers.SegmentSystem;
-import org.terasology.segmentedpaths.segments.Segment;
 
-import java.util.Map;
+import java.util.Set;
 
 public class PipeBlockSegmentMapper implements SegmentMapping {
-    private PathFollowerSystem pathFollowerSystem;
-    private SegmentSystem segmentSystem;
-    private SegmentCacheSystem segmentCacheSystem;
-    private BlockEntityRegistry blockEntityRegistry;
-
-    public PipeBlockSegmentMapper(BlockEntityRegistry blockEntityRegistry, PathFollowerSystem pathFollowerSystem,
-                                  SegmentSystem segmentSystem, SegmentCacheSystem segmentCacheSystem) {
-        this.blockEntityRegistry = blockEntityRegistry;
-        this.pathFollowerSystem = pathFollowerSystem;
-        this.segmentCacheSystem = segmentCacheSystem;
-        this.segmentSystem = segmentSystem;
+    private PipeNetworkSystem pipeNetworkSystem;
+    private PipeSystem pipeSystem;
+    private PipeMetrics pipeMetrics;
+    private TObjectIntMap<EntityRef> pendingOccupancy;
+    private Set<EntityRef> fullSinks;
+    private boolean blocked;
+    private boolean frozen;
+    private boolean undecided;
+    private EntityRef item = EntityRef.NULL;
+    private int itemKind = PipeItemKinds.UNKNOWN;
+
+    public PipeBlockSegmentMapper(PipeNetworkSystem pipeNetworkSystem, PipeSystem pipeSystem, PipeMetrics pipeMetrics) {
+        this.pipeNetworkSystem = pipeNetworkSystem;
+        this.pipeSystem = pipeSystem;
+        this.pipeMetrics = pipeMetrics;
     }
 
+    /**
+     * Creates a mapper for use off the main thread. It does not send {@link PipeMappingEvent}s: at junctions without a
+     * concurrent routing policy deciding it stops with {@link #isUndecided()} set, so the item can be routed on the
+     * main thread. It takes the occupancy changes not yet applied to the pipe system into account.
+     *
+     * @param pendingOccupancy the number of items that entered (or left, if negative) each pipe and are not counted by
+     *     the pipe system yet.
+     * @param fullSinks the blocks marked as full, copied on the main thread.
+     */
+    public PipeBlockSegmentMapper(PipeNetworkSystem pipeNetworkSystem, PipeSystem pipeSystem, PipeMetrics pipeMetrics,
+                                  TObjectIntMap<EntityRef> pendingOccupancy, Set<EntityRef> fullSinks) {
+        this(pipeNetworkSystem, pipeSystem, pipeMetrics);
+        this.pendingOccupancy = pendingOccupancy;
+        this.fullSinks = fullSinks;
+    }
 
-    @Override
-    public MappingResult nextSegment(SegmentMeta meta, SegmentEnd ends) {
-        if (meta.association.hasComponent(BlockComponent.class)) {
-            BlockComponent blockComponent = meta.association.getComponent(BlockComponent.class);
-
-            BlockFamily blockFamily = blockComponent.getBlock().getBlockFamily();
-
-            Vector3f v1 = segmentSystem.segmentPosition(meta.association);
-            Quaternionf q1 = segmentSystem.segmentRotation(meta.association);
-
-            Segment currentSegment = segmentCacheSystem.getSegment(meta.prefab);
-
-            BlockMappingComponent blockMappingComponent = meta.prefab.getComponent(BlockMappingComponent.class);
-            if (blockFamily instanceof PathFamily) {
+    /**
+     * @return whether the last lookup found no transition because the pipe or the block it leads into is full, as
+     *     opposed to the item reaching the end of the pipe network.
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
 
-                Rotation rotation = ((PathFamily) blockFamily).getRotationFor(blockComponent.getBlock().getURI());
-                switch (ends) {
-                    case START: {
-                        Vector3i segment =
-                            new Vector3i(blockComponent.getPosition(new Vector3i())).add(rotation.rotate(blockMappingComponent.s1).direction());
-                        EntityRef blockEntity = blockEntityRegistry.getBlockEntityAt(segment);
-                        PathDescriptorComponent pathDescriptor =
-                            blockEntity.getComponent(PathDescriptorComponent.class);
-                        if (pathDescriptor == null) {
-                            return null;
-                        }
+    /**
+     * @return whether the last lookup found no transition because the segment leads into a chunk that is not loaded.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
 
-                        Vector3f v2 = segmentSystem.segmentPosition(blockEntity);
-                        Quaternionf q2 = segmentSystem.segmentRotation(blockEntity);
+    /**
+     * @return whether the last lookup found no transition because the junction is left to the
+     *     {@link PipeMappingEvent} handlers, which a mapper running off the main thread can not call.
+     */
+    public boolean isUndecided() {
+        return undecided;
+    }
 
-                        Map<Side, Prefab> paths = Maps.newHashMap();
-                        for (Prefab d : pathDescriptor.descriptors) {
-                            Segment nextSegment = segmentCacheSystem.getSegment(d);
-                            BlockMappingComponent nextBlockMapping = d.getComponent(BlockMappingComponent.class);
-                            switch (segmentSystem.segmentMatch(currentSegment, v1, q1, nextSegment, v2, q2)) {
-                                case Start_End:
-                                    paths.put(Side.inDirection(q2.transform(new Vector3f(nextBlockMapping.s1.direction()))), d);
-                                    break;
-                                case Start_Start:
-                                    paths.put(Side.inDirection(q2.transform(new Vector3f(nextBlockMapping.s2.direction()))), d);
-                                    break;
-                            }
-                        }
-                        PipeMappingEvent pipeMappingEvent = blockEntity.send(new PipeMappingEvent(paths.keySet()));
-                        Prefab prefab = paths.get(pipeMappingEvent.getOutputSide());
-                        if (prefab == null) {
-                            return null;
-                        }
+    /**
+     * @param item the item the following lookups are made for, passed on to the routing policies of the junctions.
+     */
+    public void setItem(EntityRef item) {
+        setItem(item, PipeItemKinds.UNKNOWN);
+    }
 
-                        return new MappingResult(prefab, blockEntity);
+    /**
+     * @param item the item the following lookups are made for, passed on to the routing policies of the junctions.
+     * @param kind the kind of the item as interned by {@link PipeItemKinds}, or {@link PipeItemKinds#UNKNOWN}.
+     */
+    public void setItem(EntityRef item, int kind) {
+        this.item = item;
+        this.itemKind = kind;
+    }
 
-                    }
-                    case END: {
-                        Vector3i segment =
-                            new Vector3i(blockComponent.getPosition(new Vector3i())).add(rotation.rotate(blockMappingComponent.s2).direction());
-                        EntityRef blockEntity = blockEntityRegistry.getBlockEntityAt(segment);
-                        PathDescriptorComponent pathDescriptor =
-                            blockEntity.getComponent(PathDescriptorComponent.class);
-                        if (pathDescriptor == null) {
-                            return null;
-                        }
+    @Override
+    public MappingResult nextSegment(SegmentMeta meta, SegmentEnd ends) {
+        PipeTransition transition = nextTransition(meta, ends);
+        if (transition == null) {
+            return null;
+        }
+        return new MappingResult(transition.getPrefab(), transition.getEntity());
+    }
 
-                        Vector3f v2 = segmentSystem.segmentPosition(blockEntity);
-                        Quaternionf q2 = segmentSystem.segmentRotation(blockEntity);
+    /**
+     * Looks up the precomputed transitions at the given end of the segment and picks the one to follow.
+     *
+     * @param meta the segment the item is currently on.
+     * @param ends the end of the segment the item has reached.
+     * @return the transition to follow, or null if the item leaves the pipe network.
+     */
+    public PipeTransition nextTransition(SegmentMeta meta, SegmentEnd ends) {
+        blocked = false;
+        frozen = false;
+        undecided = false;
+        PipeNode node = pipeNetworkSystem.getNode(meta.association);
+        if (node == null) {
+            return null;
+        }
+        return nextTransition(node, meta.prefab, ends);
+    }
 
-                        Map<Side, Prefab> paths = Maps.newHashMap();
-                        for (Prefab d : pathDescriptor.descriptors) {
-                            Segment nextSegment = segmentCacheSystem.getSegment(d);
-                            BlockMappingComponent nextBlockMapping = d.getComponent(BlockMappingComponent.class);
-                            switch (segmentSystem.segmentMatch(currentSegment, v1, q1, nextSegment, v2, q2)) {
-                                case End_End:
-                                    paths.put(Side.inDirection(q2.transform(new Vector3f(nextBlockMapping.s1.direction()))), d);
-                                    break;
-                                case End_Start:
-                                    paths.put(Side.inDirection(q2.transform(new Vector3f(nextBlockMapping.s2.direction()))), d);
-                                    break;
-                            }
-                        }
-                        PipeMappingEvent pipeMappingEvent = blockEntity.send(new PipeMappingEvent(paths.keySet()));
-                        Prefab prefab = paths.get(pipeMappingEvent.getOutputSide());
-                        if (prefab == null) {
-                            return null;
-                        }
+    /**
+     * @param node the block the item is currently in.
+     * @param prefab the path prefab the item is following.
+     * @param ends the end of the segment the item has reached.
+     * @return the transition to follow, or null if the item leaves the pipe network, has to wait, is frozen or has to
+     *     be routed on the main thread.
+     */
+    public PipeTransition nextTransition(PipeNode node, Prefab prefab, SegmentEnd ends) {
+        blocked = false;
+        frozen = false;
+        undecided = false;
+        PipeJunction junction = node.getJunction(prefab, ends);
+        if (junction == null) {
+            return null;
+        }
+        if (junction.isUnloaded()) {
+            frozen = true;
+            return null;
+        }
+        if (junction.size() == 0 && isSinkFull(junction.getNeighborEntity())) {
+            // waits without handing the item over again until the block behind may take it
+            blocked = true;
+            return null;
+        }
+        PipeTransition transition = select(junction);
+        if (transition != null && pipeSystem.isFull(transition.getEntity(), transition.getCapacity(),
+            pendingOccupancy != null ? pendingOccupancy.get(transition.getEntity()) : 0)) {
+            blocked = true;
+            return null;
+        }
+        return transition;
+    }
 
-                        return new MappingResult(prefab, blockEntity);
+    private PipeTransition select(PipeJunction junction) {
+        switch (junction.size()) {
+            case 0:
+                return null;
+            case 1:
+                return junction.getTransition(0);
+            default:
+                PipeRoutingPolicy routingPolicy = junction.getRoutingPolicy();
+                if (routingPolicy != null && (pendingOccupancy == null || routingPolicy.isConcurrent())) {
+                    PipeTransition transition = routingPolicy.route(junction, item, itemKind);
+                    if (transition != null) {
+                        pipeMetrics.junctionDecision();
+                        return transition;
                     }
                 }
-            }
+                if (pendingOccupancy != null) {
+                    // counted once the main thread decides
+                    undecided = true;
+                    return null;
+                }
+                pipeMetrics.junctionDecision();
+                PipeMappingEvent pipeMappingEvent =
+                    junction.getNeighborEntity().send(new PipeMappingEvent(junction.getOutputSides()));
+                return junction.getTransition(pipeMappingEvent.getOutputSide());
         }
+    }
 
-        return null;
+    private boolean isSinkFull(EntityRef sink) {
+        return fullSinks != null ? fullSinks.contains(sink) : pipeNetworkSystem.isSinkFull(sink);
     }
 }
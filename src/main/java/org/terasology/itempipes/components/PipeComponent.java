@@ -6,9 +6,15 @@ import org.terasology.gestalt.entitysystem.component.Component;
 
 public class PipeComponent implements Component<PipeComponent> {
     public float friction = .1f;
+    /**
+     * Maximum number of items travelling through the pipe at once, or 0 for no limit. Items wait at the end of the
+     * previous pipe while this pipe is full.
+     */
+    public int capacity;
 
     @Override
     public void copyFrom(PipeComponent other) {
         this.friction = other.friction;
+        this.capacity = other.capacity;
     }
 }
@@ -0,0 +1,12 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.components;
+
+import org.terasology.gestalt.entitysystem.component.EmptyComponent;
+
+/**
+ * Items entering a block with this component leave it towards the nearest inventory of the network that has space.
+ * Takes precedence over the other routing components of the block.
+ */
+public class PipeDestinationRoutingComponent extends EmptyComponent<PipeDestinationRoutingComponent> {
+}
@@ -0,0 +1,30 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.components;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.terasology.gestalt.entitysystem.component.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Items entering a block with this component leave it through the first side whose filter matches them, or else
+ * through a side without a filter.
+ */
+public class PipeFilterMappingComponent implements Component<PipeFilterMappingComponent> {
+    /**
+     * Patterns per output side, keyed by the side name, e.g. {@code "LEFT"}. A pattern is an item prefab, a block
+     * family prefixed with {@code "block:"} or a module prefixed with {@code "module:"}.
+     */
+    public Map<String, List<String>> filters = Maps.newHashMap();
+
+    @Override
+    public void copyFrom(PipeFilterMappingComponent other) {
+        this.filters = Maps.newHashMap();
+        for (Map.Entry<String, List<String>> filter : other.filters.entrySet()) {
+            this.filters.put(filter.getKey(), Lists.newArrayList(filter.getValue()));
+        }
+    }
+}
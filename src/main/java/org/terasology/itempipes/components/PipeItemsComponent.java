@@ -0,0 +1,57 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.components;
+
+import com.google.common.collect.Lists;
+import org.terasology.gestalt.entitysystem.component.Component;
+
+import java.util.List;
+
+/**
+ * The items travelling through a pipe block when the world was saved, packed into parallel lists. Only present in
+ * stored worlds: the items are recreated and the component removed when the block is loaded again.
+ */
+public class PipeItemsComponent implements Component<PipeItemsComponent> {
+    /**
+     * What each item is: {@code "prefab:"} followed by the item prefab, or {@code "block:"} followed by the block family
+     * of a block item.
+     */
+    public List<String> kinds = Lists.newArrayList();
+    public List<Integer> stackCounts = Lists.newArrayList();
+    /**
+     * Index of the path the item follows in the pipe's {@code PathDescriptorComponent}.
+     */
+    public List<Integer> segments = Lists.newArrayList();
+    public List<Float> distances = Lists.newArrayList();
+    public List<Float> velocities = Lists.newArrayList();
+    public List<Integer> signs = Lists.newArrayList();
+    /**
+     * Id of the entity of each item when it was recorded, so items whose entity is still around are not recreated.
+     */
+    public List<Long> ids = Lists.newArrayList();
+
+    public void add(long id, String kind, int stackCount, int segment, float distance, float velocity, int sign) {
+        ids.add(id);
+        kinds.add(kind);
+        stackCounts.add(stackCount);
+        segments.add(segment);
+        distances.add(distance);
+        velocities.add(velocity);
+        signs.add(sign);
+    }
+
+    public int size() {
+        return kinds.size();
+    }
+
+    @Override
+    public void copyFrom(PipeItemsComponent other) {
+        this.kinds = Lists.newArrayList(other.kinds);
+        this.stackCounts = Lists.newArrayList(other.stackCounts);
+        this.segments = Lists.newArrayList(other.segments);
+        this.distances = Lists.newArrayList(other.distances);
+        this.velocities = Lists.newArrayList(other.velocities);
+        this.signs = Lists.newArrayList(other.signs);
+        this.ids = Lists.newArrayList(other.ids);
+    }
+}
@@ -0,0 +1,11 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.components;
+
+import org.terasology.gestalt.entitysystem.component.EmptyComponent;
+
+/**
+ * Items entering a block with this component leave it through its output sides in turn.
+ */
+public class PipeRoundRobinMappingComponent extends EmptyComponent<PipeRoundRobinMappingComponent> {
+}
@@ -0,0 +1,49 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.components;
+
+import org.joml.Vector3i;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.network.Replicate;
+import org.terasology.gestalt.entitysystem.component.Component;
+
+/**
+ * The segment an item in a pipe entered last and its motion at that moment. Replicated instead of the item location
+ * when the transport replicates transitions only, clients extrapolate the position from it.
+ */
+public class PipeTransitComponent implements Component<PipeTransitComponent> {
+    /**
+     * Position of the pipe block the segment belongs to.
+     */
+    @Replicate
+    public Vector3i position = new Vector3i();
+    @Replicate
+    public Prefab path;
+    @Replicate
+    public float distance;
+    @Replicate
+    public float maxDistance;
+    @Replicate
+    public int sign = 1;
+    @Replicate
+    public float velocity;
+    @Replicate
+    public float friction;
+    /**
+     * Game time in milliseconds at which the item was at {@link #distance}.
+     */
+    @Replicate
+    public long startTime;
+
+    @Override
+    public void copyFrom(PipeTransitComponent other) {
+        this.position = new Vector3i(other.position);
+        this.path = other.path;
+        this.distance = other.distance;
+        this.maxDistance = other.maxDistance;
+        this.sign = other.sign;
+        this.velocity = other.velocity;
+        this.friction = other.friction;
+        this.startTime = other.startTime;
+    }
+}
@@ -0,0 +1,24 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.components;
+
+import com.google.common.collect.Maps;
+import org.terasology.gestalt.entitysystem.component.Component;
+
+import java.util.Map;
+
+/**
+ * Items entering a block with this component leave it through a random output side, picked in proportion to the
+ * weight of the side.
+ */
+public class PipeWeightedMappingComponent implements Component<PipeWeightedMappingComponent> {
+    /**
+     * Weight per output side, keyed by the side name, e.g. {@code "LEFT"}.
+     */
+    public Map<String, Float> weights = Maps.newHashMap();
+
+    @Override
+    public void copyFrom(PipeWeightedMappingComponent other) {
+        this.weights = Maps.newHashMap(other.weights);
+    }
+}
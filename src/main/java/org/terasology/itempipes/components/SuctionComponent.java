@@ -11,6 +11,10 @@ public class SuctionComponent implements Component<SuctionComponent> {
 
     public float delay = 1000f;
     public long lastTime;
+    /**
+     * Whether sucked items are spread over the attached pipes in turn instead of at random.
+     */
+    public boolean roundRobin;
 
     @Override
     public void copyFrom(SuctionComponent other) {
@@ -18,5 +22,6 @@ public class SuctionComponent implements Component<SuctionComponent> {
         this.collisionManifold = other.collisionManifold;
         this.delay = other.delay;
         this.lastTime = other.lastTime;
+        this.roundRobin = other.roundRobin;
     }
 }
@@ -2,62 +2,419 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.itempipes.controllers;
 
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.terasology.engine.core.Time;
 import org.terasology.engine.entitySystem.entity.EntityManager;
 import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.engine.entitySystem.prefab.Prefab;
 import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
 import org.terasology.engine.entitySystem.systems.RegisterMode;
 import org.terasology.engine.entitySystem.systems.RegisterSystem;
 import org.terasology.engine.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.engine.logic.inventory.ItemComponent;
 import org.terasology.engine.logic.location.LocationComponent;
-import org.terasology.engine.math.Rotation;
 import org.terasology.engine.registry.In;
+import org.terasology.engine.registry.Share;
 import org.terasology.engine.world.BlockEntityRegistry;
+import org.terasology.engine.world.WorldComponent;
 import org.terasology.engine.world.block.BlockComponent;
-import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.engine.world.chunks.Chunks;
+import org.terasology.engine.world.chunks.event.BeforeChunkUnload;
+import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
 import org.terasology.itempipes.blocks.PipeBlockSegmentMapper;
 import org.terasology.itempipes.components.PipeComponent;
 import org.terasology.itempipes.components.PipeConnectionComponent;
 import org.terasology.itempipes.components.PipeFollowingComponent;
+import org.terasology.itempipes.components.PipeTransitComponent;
 import org.terasology.itempipes.event.PipeInsertEvent;
-import org.terasology.segmentedpaths.blocks.PathFamily;
-import org.terasology.segmentedpaths.components.BlockMappingComponent;
+import org.terasology.itempipes.network.PipeEndpoints;
+import org.terasology.itempipes.network.PipeItemBuffer;
+import org.terasology.itempipes.network.PipeItemKinds;
+import org.terasology.itempipes.network.PipeJunction;
+import org.terasology.itempipes.network.PipeMotion;
+import org.terasology.itempipes.network.PipeNetwork;
+import org.terasology.itempipes.network.PipeNode;
+import org.terasology.itempipes.network.PipeTransition;
+import org.terasology.module.inventory.components.InventoryComponent;
+import org.terasology.module.inventory.systems.InventoryUtils;
+import org.terasology.protobuf.EntityData;
+import org.terasology.segmentedpaths.SegmentMeta;
 import org.terasology.segmentedpaths.components.PathFollowerComponent;
 import org.terasology.segmentedpaths.controllers.PathFollowerSystem;
-import org.terasology.segmentedpaths.controllers.SegmentCacheSystem;
-import org.terasology.segmentedpaths.controllers.SegmentSystem;
+import org.terasology.segmentedpaths.controllers.SegmentMapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
+@Share(value = BlockMotionSystem.class)
 public class BlockMotionSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
     @In
     EntityManager entityManager;
     @In
+    Time gameTime;
+    @In
     PathFollowerSystem pathFollowerSystem;
     @In
     BlockEntityRegistry blockEntityRegistry;
     @In
-    SegmentSystem segmentSystem;
+    PipeSystem pipeSystem;
     @In
-    SegmentCacheSystem segmentCacheSystem;
+    PipeNetworkSystem pipeNetworkSystem;
     @In
-    PipeSystem pipeSystem;
+    PipeMetrics pipeMetrics;
+    @In
+    PipePersistenceSystem pipePersistenceSystem;
+
+    /**
+     * Tolerance in seconds when deciding whether an item reached the end of its segment, so that rounding does not
+     * leave an item a hair before the end and force an extra step.
+     */
+    private static final float EVENT_EPSILON = 1e-4f;
+    /**
+     * Maximum number of segments looked ahead when computing the end of a run, which also bounds closed loops.
+     */
+    private static final int MAX_RUN_LENGTH = 256;
+    /**
+     * Seconds a batched item waiting in front of a full pipe waits before it tries again.
+     */
+    private static final float BLOCKED_RETRY = .25f;
 
     private PipeBlockSegmentMapper segmentMapping;
+    private PipeLevelOfDetail levelOfDetail;
+    private PipeItemParking parking;
+    private NetworkStep mainStep;
+
+    private boolean batchedTransport;
+    private boolean parallelTransport;
+    private boolean replicatedTransitions;
+    private int inFlight;
+    /**
+     * Seconds since the batched transport last had nothing scheduled, which all event and anchor times refer to. Kept
+     * as a double so the event times stay exact in networks that never sleep.
+     */
+    private double clock;
+    private final List<PipeNetwork> awakeNetworks = new ArrayList<>();
+    private final Map<EntityRef, PipeNetwork> itemNetworks = new HashMap<>();
+    private final List<EntityRef> pendingItems = new ArrayList<>();
+    private final List<EntityRef> exitingItems = new ArrayList<>();
+    private final Map<EntityRef, List<EntityRef>> exitsByTarget = new LinkedHashMap<>();
+    private final TObjectLongMap<EntityRef> deliveredItems = new TObjectLongHashMap<>();
+    private final List<NetworkStep> stepPool = new ArrayList<>();
+    private final Set<EntityRef> fullSinks = new HashSet<>();
 
     @Override
     public void initialise() {
-        segmentMapping = new PipeBlockSegmentMapper(blockEntityRegistry, pathFollowerSystem, segmentSystem, segmentCacheSystem);
+        segmentMapping = new PipeBlockSegmentMapper(pipeNetworkSystem, pipeSystem, pipeMetrics);
+        mainStep = new NetworkStep(segmentMapping, false);
+        levelOfDetail = new PipeLevelOfDetail(entityManager);
+        parking = new PipeItemParking(entityManager);
+    }
+
+    @Override
+    public void preSave() {
+        synchronizeAll();
+        pipePersistenceSystem.storeItems();
+    }
+
+    @Override
+    public void postSave() {
+        pipePersistenceSystem.releaseItems();
+    }
+
+    /**
+     * Brings the entities of all batched items up to date, recreating parked ones.
+     */
+    private void synchronizeAll() {
+        for (PipeNetwork network : awakeNetworks) {
+            PipeItemBuffer items = network.getItems();
+            for (int i = items.size() - 1; i >= 0; i--) {
+                if (catchUp(items, i)) {
+                    writeBack(items, i);
+                    itemNetworks.put(items.items[i], network);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        setBatchedTransport(false);
+        deliveredItems.clear();
+        fullSinks.clear();
+        levelOfDetail.clear();
+    }
+
+    /**
+     * @param target a block pipes hand items to, such as a chest.
+     * @return the number of items the block has taken from pipes so far, counting every item of a stack.
+     */
+    public long getDeliveredItems(EntityRef target) {
+        return deliveredItems.get(target);
+    }
+
+    public void resetDeliveredItems() {
+        deliveredItems.clear();
+    }
+
+    /**
+     * @return the number of items currently travelling through pipes.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the networks the batched transport currently moves items through.
+     */
+    public List<PipeNetwork> getAwakeNetworks() {
+        return Collections.unmodifiableList(awakeNetworks);
+    }
+
+    public boolean isBatchedTransport() {
+        return batchedTransport;
+    }
+
+    /**
+     * Switches between per-entity transport and batched transport.
+     * <p>
+     * In batched mode the transport state of every item in a pipe is kept in primitive arrays owned by the network
+     * the item travels through. Networks without items sleep. The motion of an item is evaluated analytically: the
+     * time at which it reaches the end of its run, the next junction offering a choice or the end of the network, is
+     * computed once, and nothing is done for the item until then. The item entities are only updated when they leave
+     * the pipe network, when the world is saved or when {@link #synchronize(EntityRef)} is called.
+     *
+     * @param batched true to enable batched transport.
+     */
+    public void setBatchedTransport(boolean batched) {
+        if (batched == batchedTransport) {
+            return;
+        }
+        if (!batched) {
+            parking.setEnabled(false);
+            parallelTransport = false;
+        }
+        if (batched) {
+            batchedTransport = true;
+            for (EntityRef entityRef : entityManager.getEntitiesWith(PipeFollowingComponent.class)) {
+                pendingItems.add(entityRef);
+            }
+        } else {
+            synchronizeAll();
+            for (PipeNetwork network : awakeNetworks) {
+                network.getItems().clear();
+                network.setAwake(false);
+            }
+            awakeNetworks.clear();
+            itemNetworks.clear();
+            pendingItems.clear();
+            batchedTransport = false;
+            applyExits();
+        }
+    }
+
+    public boolean isParallelTransport() {
+        return parallelTransport;
+    }
+
+    /**
+     * Switches parallel stepping of the pipe networks on or off, enabling batched transport if needed.
+     * <p>
+     * Networks never share items or blocks, so the networks with due items are stepped concurrently on the common
+     * fork-join pool. Everything touching entities or shared state, i.e. occupancy changes, parking and the hand-off of
+     * items leaving the pipes, is collected per network and committed on the main thread afterwards.
+     * {@code PipeMappingEvent}s can not be sent off the main thread: items reaching junctions whose routing policy
+     * leaves the decision to the event wait there until the commit routes them, so routing is the same as with
+     * sequential stepping, but such junctions are cheaper when routed by a policy registered with the
+     * {@link PipeNetworkSystem}.
+     *
+     * @param parallel true to step networks in parallel.
+     */
+    public void setParallelTransport(boolean parallel) {
+        if (parallel) {
+            setBatchedTransport(true);
+        }
+        parallelTransport = parallel;
+    }
+
+    public boolean isVirtualItems() {
+        return parking.isEnabled();
+    }
+
+    /**
+     * Switches virtual items on or off, enabling batched transport if needed.
+     * <p>
+     * With virtual items an item entity only exists while it enters or leaves the pipe network. In between, the batched
+     * transport keeps the entity serialized next to the transport state of the item and destroys it. The entity is
+     * recreated, with a new id, when the item leaves the network and while the world is saved. References to an item
+     * entity held elsewhere do not survive its trip through the pipes.
+     *
+     * @param virtual true to enable virtual items.
+     */
+    public void setVirtualItems(boolean virtual) {
+        if (virtual) {
+            setBatchedTransport(true);
+        } else if (parking.isEnabled()) {
+            synchronizeAll();
+        }
+        parking.setEnabled(virtual);
+    }
+
+    public boolean isReplicatedTransitions() {
+        return replicatedTransitions;
+    }
+
+    /**
+     * Switches replication of segment transitions on or off.
+     * <p>
+     * Normally the location of every moving item is saved, and thus replicated, on every tick in per-entity transport
+     * and whenever an item is caught up in batched transport. With replicated transitions the location of an item in a
+     * pipe is left alone; a {@link PipeTransitComponent} describing the segment and motion of the item is saved each
+     * time it enters a segment instead, and clients extrapolate the position from it. Batched runs end at every segment
+     * while this is on, so every transition is reported. Virtual items have no entity to replicate and stay invisible
+     * to clients. The item locations on the server are only updated when the items leave the pipes, so this is meant
+     * for dedicated servers.
+     *
+     * @param replicated true to replicate segment transitions only.
+     */
+    public void setReplicatedTransitions(boolean replicated) {
+        replicatedTransitions = replicated;
+    }
+
+    public float getLodDistance() {
+        return levelOfDetail.getDistance();
+    }
+
+    /**
+     * Sets the distance from the nearest player beyond which the locations of items in pipes are not updated.
+     * <p>
+     * Items further away from every client's character still move through the pipes, only their {@link LocationComponent}
+     * (or, with replicated transitions, their {@link PipeTransitComponent}) is left as it is, which saves computing the
+     * position on the path and replicating it. The position is written again once a player comes close, and always
+     * when an item leaves the pipes. Player positions are looked up twice a second.
+     *
+     * @param lodDistance the distance in blocks, or 0 to always update the locations.
+     */
+    public void setLodDistance(float lodDistance) {
+        levelOfDetail.setDistance(lodDistance, clock);
+    }
+
+    /**
+     * Evaluates the current position of an item held by the batched transport and writes its transport state back to
+     * its entity. Call this before reading the location of an item in a pipe.
+     *
+     * @param item the item to update.
+     */
+    public void synchronize(EntityRef item) {
+        PipeNetwork network = itemNetworks.get(item);
+        if (network == null) {
+            return;
+        }
+        int index = network.getItems().indexOf(item);
+        if (index != -1 && catchUp(network.getItems(), index)) {
+            writeBack(network.getItems(), index);
+        }
+    }
+
+    @ReceiveEvent(components = {PipeFollowingComponent.class, PathFollowerComponent.class})
+    public void onPipeFollowerActivated(OnActivatedComponent event, EntityRef entityRef) {
+        if (parking.isSwapping()) {
+            return;
+        }
+        inFlight++;
+        pipeSystem.occupy(entityRef.getComponent(PathFollowerComponent.class).segmentMeta.association);
+        if (batchedTransport) {
+            pendingItems.add(entityRef);
+        }
+    }
+
+    @ReceiveEvent(components = {PipeFollowingComponent.class})
+    public void onPipeFollowerDeactivated(BeforeDeactivateComponent event, EntityRef entityRef) {
+        if (parking.isSwapping()) {
+            return;
+        }
+        inFlight = Math.max(inFlight - 1, 0);
+        levelOfDetail.resume(entityRef);
+        PipeNetwork network = itemNetworks.get(entityRef);
+        if (network != null) {
+            int index = network.getItems().indexOf(entityRef);
+            if (index != -1 && catchUp(network.getItems(), index)) {
+                writeBack(network.getItems(), index);
+                network.getItems().remove(index);
+                itemNetworks.remove(entityRef);
+            }
+        }
+        PathFollowerComponent pathFollowerComponent = entityRef.getComponent(PathFollowerComponent.class);
+        if (pathFollowerComponent != null) {
+            pipeSystem.vacate(pathFollowerComponent.segmentMeta.association);
+        }
+    }
+
+    /**
+     * Recreates the parked items in a chunk about to be unloaded, so they are stored with it.
+     */
+    @ReceiveEvent(components = {WorldComponent.class})
+    public void onBeforeChunkUnload(BeforeChunkUnload event, EntityRef worldEntity) {
+        if (!parking.isEnabled()) {
+            return;
+        }
+        Vector3ic chunkPos = event.getChunkPos();
+        Vector3i chunk = new Vector3i();
+        for (PipeNetwork network : awakeNetworks) {
+            PipeItemBuffer items = network.getItems();
+            for (int i = items.size() - 1; i >= 0; i--) {
+                if (items.isParked(i)
+                    && Chunks.toChunkPos(items.nodes[i].getPosition(), chunk).equals(chunkPos.x(), chunkPos.y(), chunkPos.z())
+                    && catchUp(items, i)) {
+                    writeBack(items, i);
+                    itemNetworks.put(items.items[i], network);
+                }
+            }
+        }
     }
 
     @Override
     public void update(float delta) {
+        clock += delta;
+        if (inFlight == 0 && exitingItems.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // without replicated transitions the batched transport writes no locations the level of detail could skip
+        if (!batchedTransport || replicatedTransitions) {
+            levelOfDetail.refresh(clock);
+        }
+        if (batchedTransport) {
+            updateBatched();
+        } else {
+            updateEntities(delta);
+        }
+        pipeMetrics.updateFinished(System.nanoTime() - start);
+    }
+
+    private void updateEntities(float delta) {
         for (EntityRef entityRef : entityManager.getEntitiesWith(PipeFollowingComponent.class)) {
             PathFollowerComponent pathFollowingComponent = entityRef.getComponent(PathFollowerComponent.class);
             EntityRef blockEntity = pathFollowingComponent.segmentMeta.association;
             if (!blockEntity.exists()) {
-                pipeSystem.dropItem(entityRef);
-                return;
+                exitingItems.add(entityRef);
+                continue;
             }
             PipeComponent pipeComponent = blockEntity.getComponent(PipeComponent.class);
             PipeFollowingComponent pipeFollowingComponent = entityRef.getComponent(PipeFollowingComponent.class);
@@ -68,35 +425,654 @@ public class BlockMotionSystem extends BaseComponentSystem implements UpdateSubs
                 pipeFollowingComponent.velocity = .5f * Math.signum(pipeFollowingComponent.velocity);
             }
 
-            if (pathFollowerSystem.move(entityRef, delta * pipeFollowingComponent.velocity, segmentMapping)) {
+            boolean distant = levelOfDetail.isDistant(blockEntity);
+            segmentMapping.setItem(entityRef);
+            if (!pathFollowerSystem.move(entityRef, delta * pipeFollowingComponent.velocity, segmentMapping)) {
+                if (segmentMapping.isBlocked() || segmentMapping.isFrozen()) {
+                    hold(entityRef);
+                } else {
+                    if (replicatedTransitions || distant) {
+                        locationComponent.setWorldPosition(pathFollowerSystem.vehiclePoint(entityRef));
+                        entityRef.saveComponent(locationComponent);
+                    }
+                    exitingItems.add(entityRef);
+                }
+                continue;
+            }
+            pathFollowingComponent = entityRef.getComponent(PathFollowerComponent.class);
+            SegmentMeta meta = pathFollowingComponent.segmentMeta;
+            if (meta.association != blockEntity) {
+                pipeSystem.vacate(blockEntity);
+                pipeSystem.occupy(meta.association);
+            }
+            if (distant) {
+                levelOfDetail.skip(entityRef);
+            } else if (replicatedTransitions) {
+                PipeTransitComponent transit = entityRef.getComponent(PipeTransitComponent.class);
+                if (transit == null || transit.path != meta.prefab || meta.association != blockEntity
+                    || levelOfDetail.resume(entityRef)) {
+                    PipeNode node = pipeNetworkSystem.getNode(meta.association);
+                    publishTransit(entityRef, meta.association, meta.prefab, meta.distance,
+                        pipeSystem.getSegment(meta.prefab).maxDistance(), pipeFollowingComponent.velocity, meta.sign,
+                        node != null ? node.getFriction() : 0, 0);
+                }
+            } else {
                 Vector3f position = pathFollowerSystem.vehiclePoint(entityRef);
                 locationComponent.setWorldPosition(position);
+                entityRef.saveComponent(locationComponent);
+            }
+            entityRef.saveComponent(pathFollowingComponent);
+            entityRef.saveComponent(pipeFollowingComponent);
+        }
+        applyExits();
+    }
+
+    private void updateBatched() {
+        adoptPendingItems();
+
+        if (parallelTransport) {
+            stepInParallel();
+        } else {
+            for (int n = 0; n < awakeNetworks.size(); n++) {
+                PipeNetwork network = awakeNetworks.get(n);
+                if (network.isDissolved()) {
+                    rehome(network);
+                } else if (clock >= network.getNextEventTime()) {
+                    advance(network);
+                }
+            }
+        }
+
+        // networks dissolved after their turn in this tick keep their items until they are rehomed on the next one
+        int awake = 0;
+        for (PipeNetwork network : awakeNetworks) {
+            if (network.getItems().size() > 0) {
+                awakeNetworks.set(awake++, network);
             } else {
-                BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
-                BlockFamily blockFamily = blockComponent.getBlock().getBlockFamily();
-                BlockMappingComponent blockMappingComponent = pathFollowingComponent.segmentMeta.prefab.getComponent(BlockMappingComponent.class);
-                if (blockFamily instanceof PathFamily) {
-                    Rotation rotation = ((PathFamily) blockFamily).getRotationFor(blockComponent.getBlock().getURI());
-                    Vector3i position = blockComponent.getPosition(new Vector3i());
-                    if (pathFollowingComponent.segmentMeta.sign == 1) {
-                        position.add(rotation.rotate(blockMappingComponent.s2).direction());
-                    } else {
-                        position.add(rotation.rotate(blockMappingComponent.s1).direction());
-                    }
-                    EntityRef nextBlock = blockEntityRegistry.getBlockEntityAt(position);
-                    pipeSystem.dropItem(entityRef);
-                    if (nextBlock.hasComponent(PipeConnectionComponent.class)) {
-                        nextBlock.send(new PipeInsertEvent(entityRef, pathFollowingComponent.segmentMeta));
-                    }
-                } else {
-                    pipeSystem.dropItem(entityRef);
+                network.setAwake(false);
+            }
+        }
+        awakeNetworks.subList(awake, awakeNetworks.size()).clear();
+        if (awakeNetworks.isEmpty() && pendingItems.isEmpty()) {
+            // no event is scheduled, so the clock can start over and keep its full precision
+            levelOfDetail.rewind(clock);
+            clock = 0;
+        }
+
+        applyExits();
+    }
+
+    /**
+     * Handles every item of a network whose event is due.
+     */
+    private void advance(PipeNetwork network) {
+        PipeItemBuffer items = network.getItems();
+        while (items.size() > 0 && items.getNextEventTime() <= clock) {
+            int i = items.peek();
+            if (catchUp(items, i) && !items.isParked(i)) {
+                settle(items, i);
+            }
+        }
+    }
+
+    /**
+     * Parks or publishes an item that was just stepped, depending on the transport mode. Distant items are published
+     * again on their next step once a player comes close.
+     */
+    private void settle(PipeItemBuffer items, int i) {
+        if (parking.isEnabled()) {
+            park(items, i);
+        } else if (replicatedTransitions && !levelOfDetail.isDistant(items.nodes[i].getPosition())) {
+            publishTransit(items.items[i], items.nodes[i].getEntity(), items.prefabs[i], items.distance[i],
+                items.maxDistance[i], items.velocity[i], items.sign[i], items.nodes[i].getFriction(),
+                (float) (clock - items.anchorTime[i]));
+        }
+    }
+
+    /**
+     * Saves the segment an item entered and its motion there for clients to extrapolate from.
+     *
+     * @param age the time in seconds since the item was at the given distance.
+     */
+    private void publishTransit(EntityRef item, EntityRef pipe, Prefab path, float distance, float maxDistance,
+                                float velocity, int sign, float friction, float age) {
+        BlockComponent blockComponent = pipe.getComponent(BlockComponent.class);
+        if (blockComponent == null) {
+            return;
+        }
+        PipeTransitComponent transit = item.getComponent(PipeTransitComponent.class);
+        if (transit == null) {
+            transit = new PipeTransitComponent();
+        }
+        blockComponent.getPosition(transit.position);
+        transit.path = path;
+        transit.distance = distance;
+        transit.maxDistance = maxDistance;
+        transit.sign = sign;
+        transit.velocity = velocity;
+        transit.friction = friction;
+        transit.startTime = gameTime.getGameTimeInMs() - (long) (age * 1000);
+        item.addOrSaveComponent(transit);
+    }
+
+    /**
+     * Rehomes the items of dissolved networks, then steps all networks with due items concurrently and commits their
+     * results one network after the other.
+     */
+    private void stepInParallel() {
+        for (int n = 0; n < awakeNetworks.size(); n++) {
+            PipeNetwork network = awakeNetworks.get(n);
+            if (network.isDissolved()) {
+                rehome(network);
+            }
+        }
+        int due = 0;
+        for (PipeNetwork network : awakeNetworks) {
+            if (!network.isDissolved() && network.getItems().size() > 0 && clock >= network.getNextEventTime()) {
+                if (due == stepPool.size()) {
+                    stepPool.add(new NetworkStep(null, true));
+                }
+                stepPool.get(due++).network = network;
+            }
+        }
+        List<NetworkStep> steps = stepPool.subList(0, due);
+        if (due > 0) {
+            pipeNetworkSystem.copyFullSinks(fullSinks);
+        }
+        if (due == 1) {
+            steps.get(0).run();
+        } else if (due > 1) {
+            steps.parallelStream().forEach(NetworkStep::run);
+        }
+        for (NetworkStep step : steps) {
+            commit(step);
+        }
+    }
+
+    /**
+     * Applies what a network step collected: occupancy changes, parking of the stepped items, the routing of the items
+     * waiting at junctions decided by {@code PipeMappingEvent}s and the release of the items that left the pipe
+     * network.
+     */
+    private void commit(NetworkStep step) {
+        step.pendingOccupancy.forEachEntry((pipe, delta) -> {
+            if (delta != 0) {
+                pipeSystem.changeOccupancy(pipe, delta);
+            }
+            return true;
+        });
+        step.pendingOccupancy.clear();
 
+        PipeItemBuffer items = step.network.getItems();
+        if (parking.isEnabled() || replicatedTransitions) {
+            for (int k = 0; k < step.stepped.size(); k++) {
+                int i = step.stepped.get(k);
+                if (items.eventTime[i] != Double.POSITIVE_INFINITY && !items.isParked(i)) {
+                    settle(items, i);
                 }
-                return;
             }
-            entityRef.saveComponent(locationComponent);
-            entityRef.saveComponent(pathFollowingComponent);
-            entityRef.saveComponent(pipeFollowingComponent);
+        }
+        step.stepped.clear();
+
+        // steps on from the junction with the main thread's mapper, as the sequential stepping would have
+        for (int k = 0; k < step.undecidedItems.size(); k++) {
+            int i = step.undecidedItems.get(k);
+            if (!advanceItem(mainStep, items, i, (float) (clock - items.anchorTime[i]))) {
+                items.schedule(i, Double.POSITIVE_INFINITY);
+                step.exited.add(i);
+            } else {
+                reschedule(mainStep, items, i);
+                if ((parking.isEnabled() || replicatedTransitions) && items.eventTime[i] != Double.POSITIVE_INFINITY
+                    && !items.isParked(i)) {
+                    settle(items, i);
+                }
+            }
+        }
+        step.undecidedItems.clear();
+
+        // removing an item moves the last one into its slot, so going from the back keeps the other indices valid
+        step.exited.sort();
+        for (int k = step.exited.size() - 1; k >= 0; k--) {
+            release(items, step.exited.get(k));
+        }
+        step.exited.clear();
+        step.network = null;
+    }
+
+    /**
+     * Brings an item up to the current time and schedules its next event.
+     *
+     * @return false if the item left the pipe network and was removed from the buffer.
+     */
+    private boolean catchUp(PipeItemBuffer items, int i) {
+        return catchUp(mainStep, items, i);
+    }
+
+    /**
+     * Brings an item up to the current time and schedules its next event. A deferred step leaves an item that left
+     * the pipe network or reached a junction decided by {@code PipeMappingEvent}s in the buffer, without an event, and
+     * records it for the commit instead of releasing or routing it.
+     *
+     * @return false if the item left the pipe network.
+     */
+    private boolean catchUp(NetworkStep step, PipeItemBuffer items, int i) {
+        if (!advanceItem(step, items, i, (float) (clock - items.anchorTime[i]))) {
+            if (step.deferred) {
+                items.schedule(i, Double.POSITIVE_INFINITY);
+                step.exited.add(i);
+            } else {
+                release(items, i);
+            }
+            return false;
+        }
+        if (step.undecided) {
+            // waits at the junction, without an event, until the commit routes it on the main thread
+            items.anchorTime[i] = clock - step.overshoot;
+            items.schedule(i, Double.POSITIVE_INFINITY);
+            step.undecidedItems.add(i);
+            return true;
+        }
+        reschedule(step, items, i);
+        return true;
+    }
+
+    /**
+     * Schedules the next event of an item that was just brought up to the current time.
+     */
+    private void reschedule(NetworkStep step, PipeItemBuffer items, int i) {
+        items.anchorTime[i] = clock;
+        if (step.frozen) {
+            // woken up by the rebuild of its network once the chunk ahead is loaded
+            items.schedule(i, Double.POSITIVE_INFINITY);
+        } else {
+            items.schedule(i, clock + (step.blocked ? BLOCKED_RETRY : Math.max(timeToRunEnd(step, items, i), EVENT_EPSILON)));
+        }
+    }
+
+    /**
+     * Computes how long the item takes to reach the end of its run: the segments it passes through without any
+     * choice, up to the next junction with several outputs or the end of the pipe network. Occupancy only moves when
+     * an item is stepped, so runs also end where the item enters or leaves a pipe with a capacity.
+     */
+    private float timeToRunEnd(NetworkStep step, PipeItemBuffer items, int i) {
+        PipeNode node = items.nodes[i];
+        Prefab prefab = items.prefabs[i];
+        int sign = items.sign[i];
+        float velocity = items.velocity[i];
+        float remaining = sign > 0 ? items.maxDistance[i] - items.distance[i] : items.distance[i];
+        float time = 0;
+        for (int segment = 0; segment < MAX_RUN_LENGTH; segment++) {
+            float timeToEnd = PipeMotion.timeToTravel(velocity, node.getFriction(), remaining);
+            time += timeToEnd;
+            velocity = PipeMotion.velocityAt(velocity, node.getFriction(), timeToEnd);
+            if (replicatedTransitions || node.getCapacity() > 0) {
+                break;
+            }
+
+            PipeJunction junction = node.getJunction(prefab, sign > 0 ? SegmentMapping.SegmentEnd.END : SegmentMapping.SegmentEnd.START);
+            if (junction == null || junction.size() != 1) {
+                break;
+            }
+            PipeTransition transition = junction.getTransition(0);
+            PipeNode next = step.getNode(transition.getPosition());
+            if (next == null || next.getCapacity() > 0) {
+                break;
+            }
+            node = next;
+            prefab = transition.getPrefab();
+            sign = transition.isReverse() ? -1 : 1;
+            remaining = transition.getMaxDistance();
+        }
+        return time;
+    }
+
+    /**
+     * Removes an item that reached the end of the pipe network from the buffer and queues it for the hand-off.
+     */
+    private void release(PipeItemBuffer items, int i) {
+        writeBack(items, i);
+        EntityRef item = items.items[i];
+        exitingItems.add(item);
+        items.remove(i);
+        itemNetworks.remove(item);
+    }
+
+    /**
+     * Moves a single item forward by the given time, following the pipe graph across segment ends.
+     *
+     * @return false if the item reached the end of the pipe network. If the item has to wait in front of a full pipe,
+     *     the blocked flag of the step is set, if it has to wait for the chunk ahead to be loaded, the frozen flag. If
+     *     a deferred step can not route it, the undecided flag is set and the overshoot holds the time it has left.
+     */
+    private boolean advanceItem(NetworkStep step, PipeItemBuffer items, int i, float elapsed) {
+        step.blocked = false;
+        step.frozen = false;
+        step.undecided = false;
+        float time = elapsed;
+        while (true) {
+            float friction = items.nodes[i].getFriction();
+            float velocity = items.velocity[i];
+            float remaining = items.sign[i] > 0 ? items.maxDistance[i] - items.distance[i] : items.distance[i];
+            float timeToEnd = PipeMotion.timeToTravel(velocity, friction, remaining);
+            if (timeToEnd > time + EVENT_EPSILON) {
+                items.distance[i] += items.sign[i] * PipeMotion.distanceAt(velocity, friction, time);
+                items.velocity[i] = PipeMotion.velocityAt(velocity, friction, time);
+                return true;
+            }
+            time = Math.max(time - timeToEnd, 0);
+            items.velocity[i] = PipeMotion.velocityAt(velocity, friction, timeToEnd);
+
+            SegmentMapping.SegmentEnd end = items.sign[i] > 0 ? SegmentMapping.SegmentEnd.END : SegmentMapping.SegmentEnd.START;
+            items.distance[i] = items.sign[i] > 0 ? items.maxDistance[i] : 0;
+            step.mapper.setItem(items.items[i], items.kinds[i]);
+            PipeTransition transition = step.mapper.nextTransition(items.nodes[i], items.prefabs[i], end);
+            if (transition == null && step.mapper.isUndecided()) {
+                step.undecided = true;
+                step.overshoot = time;
+                return true;
+            }
+            if (transition == null && (step.mapper.isBlocked() || step.mapper.isFrozen())) {
+                step.blocked = step.mapper.isBlocked();
+                step.frozen = step.mapper.isFrozen();
+                items.velocity[i] = PipeMotion.MIN_VELOCITY;
+                return true;
+            }
+            PipeNode next = transition == null ? null : step.getNode(transition.getPosition());
+            if (next == null) {
+                return false;
+            }
+            step.move(items.nodes[i].getEntity(), next.getEntity());
+            items.nodes[i] = next;
+            items.prefabs[i] = transition.getPrefab();
+            items.maxDistance[i] = transition.getMaxDistance();
+            if (transition.isReverse()) {
+                items.sign[i] = -1;
+                items.distance[i] = transition.getMaxDistance();
+            } else {
+                items.sign[i] = 1;
+                items.distance[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Moves the items of a network dissolved by a topology change into the networks that replaced it. Frozen items
+     * resume from where they stopped, without catching up on the time spent waiting.
+     */
+    private void rehome(PipeNetwork network) {
+        PipeItemBuffer items = network.getItems();
+        for (int i = items.size() - 1; i >= 0; i--) {
+            PipeNode node = items.nodes[i].isValid() ? items.nodes[i] : pipeNetworkSystem.getNode(items.nodes[i].getPosition());
+            if (node == null) {
+                writeBack(items, i);
+                exitingItems.add(items.items[i]);
+                itemNetworks.remove(items.items[i]);
+            } else {
+                if (node.getEntity() != items.nodes[i].getEntity()) {
+                    pipeSystem.occupy(node.getEntity());
+                }
+                double anchor = items.eventTime[i] == Double.POSITIVE_INFINITY ? clock : items.anchorTime[i];
+                addItem(items.items[i], items.records[i], items.kinds[i], node, items.prefabs[i], items.distance[i],
+                    items.maxDistance[i], items.velocity[i], items.sign[i], anchor);
+            }
+        }
+        items.clear();
+    }
+
+    private void adoptPendingItems() {
+        for (EntityRef item : pendingItems) {
+            if (!item.exists() || itemNetworks.containsKey(item)) {
+                continue;
+            }
+            PathFollowerComponent pathFollowerComponent = item.getComponent(PathFollowerComponent.class);
+            PipeFollowingComponent pipeFollowingComponent = item.getComponent(PipeFollowingComponent.class);
+            if (pathFollowerComponent == null || pipeFollowingComponent == null) {
+                continue;
+            }
+            SegmentMeta meta = pathFollowerComponent.segmentMeta;
+            PipeNode node = pipeNetworkSystem.getNode(meta.association);
+            PipeEndpoints endpoints = node != null ? pipeSystem.getEndpoints(meta.prefab, node.getRotation()) : null;
+            if (endpoints == null) {
+                pipeSystem.dropItem(item);
+                continue;
+            }
+            addItem(item, null, pipeNetworkSystem.getItemKinds().getKind(item), node, meta.prefab, meta.distance,
+                endpoints.getMaxDistance(), pipeFollowingComponent.velocity, meta.sign, clock);
+        }
+        pendingItems.clear();
+    }
+
+    /**
+     * Adds an item to the network of the given block and wakes the network up.
+     *
+     * @param record the serialized item if it is parked, otherwise null.
+     * @param kind the kind of the item as interned by {@link PipeItemKinds}.
+     * @param time the time at which the given transport state is valid.
+     */
+    private void addItem(EntityRef item, EntityData.Entity record, int kind, PipeNode node, Prefab prefab, float distance,
+                         float maxDistance, float velocity, int sign, double time) {
+        PipeNetwork network = pipeNetworkSystem.getNetwork(node);
+        if (!network.isAwake()) {
+            network.setAwake(true);
+            awakeNetworks.add(network);
+        }
+        PipeItemBuffer items = network.getItems();
+        int index = items.add(item, node, prefab, distance, maxDistance, velocity, sign, time);
+        items.kinds[index] = kind;
+        items.schedule(index, time + timeToRunEnd(mainStep, items, index));
+        if (record != null) {
+            items.park(index, record);
+        } else if (parking.isEnabled()) {
+            park(items, index);
+        } else {
+            itemNetworks.put(item, network);
+            if (replicatedTransitions) {
+                settle(items, index);
+            }
+        }
+    }
+
+    private void park(PipeItemBuffer items, int index) {
+        itemNetworks.remove(items.items[index]);
+        parking.park(items, index);
+    }
+
+    private void writeBack(PipeItemBuffer items, int index) {
+        if (items.isParked(index)) {
+            parking.unpark(items, index);
+        }
+        EntityRef item = items.items[index];
+        PathFollowerComponent pathFollowerComponent = item.getComponent(PathFollowerComponent.class);
+        PipeFollowingComponent pipeFollowingComponent = item.getComponent(PipeFollowingComponent.class);
+        LocationComponent locationComponent = item.getComponent(LocationComponent.class);
+        if (pathFollowerComponent == null || pipeFollowingComponent == null) {
+            return;
+        }
+        SegmentMeta meta = pathFollowerComponent.segmentMeta;
+        meta.association = items.nodes[index].getEntity();
+        meta.prefab = items.prefabs[index];
+        meta.distance = items.distance[index];
+        meta.sign = items.sign[index];
+        pipeFollowingComponent.velocity = items.velocity[index];
+        item.saveComponent(pathFollowerComponent);
+        item.saveComponent(pipeFollowingComponent);
+        if (locationComponent != null) {
+            locationComponent.setWorldPosition(pathFollowerSystem.vehiclePoint(item));
+            item.saveComponent(locationComponent);
+        }
+    }
+
+    /**
+     * Hands off every item that left its pipe during this tick. Done after the transport loop so that the items still
+     * being iterated are not affected by the component changes.
+     * <p>
+     * Items are grouped by the block they are handed to, and identical items arriving at the same block are merged into
+     * as few stacks as possible first, so a busy output sends one insert per stack rather than one per item.
+     */
+    private void applyExits() {
+        for (EntityRef item : exitingItems) {
+            PathFollowerComponent pathFollowerComponent = item.getComponent(PathFollowerComponent.class);
+            if (pathFollowerComponent == null) {
+                continue;
+            }
+            EntityRef target = findTarget(pathFollowerComponent.segmentMeta);
+            if (target.exists()) {
+                exitsByTarget.computeIfAbsent(target, key -> new ArrayList<>()).add(item);
+            } else {
+                pipeSystem.dropItem(item);
+            }
+        }
+        exitingItems.clear();
+
+        for (Map.Entry<EntityRef, List<EntityRef>> exits : exitsByTarget.entrySet()) {
+            List<EntityRef> items = exits.getValue();
+            mergeStacks(items);
+            for (EntityRef item : items) {
+                if (!handOff(exits.getKey(), item) && batchedTransport) {
+                    pendingItems.add(item);
+                }
+            }
+        }
+        exitsByTarget.clear();
+    }
+
+    /**
+     * @return the block behind the end of the segment the item reached if it accepts items from pipes, otherwise
+     *     {@link EntityRef#NULL}.
+     */
+    private EntityRef findTarget(SegmentMeta segmentMeta) {
+        PipeNode node = segmentMeta.association.exists() ? pipeNetworkSystem.getNode(segmentMeta.association) : null;
+        PipeJunction junction = node == null ? null : node.getJunction(segmentMeta.prefab,
+            segmentMeta.sign == 1 ? SegmentMapping.SegmentEnd.END : SegmentMapping.SegmentEnd.START);
+        if (junction != null) {
+            EntityRef nextBlock = blockEntityRegistry.getBlockEntityAt(junction.getNeighbor());
+            if (nextBlock.hasComponent(PipeConnectionComponent.class)) {
+                return nextBlock;
+            }
+        }
+        return EntityRef.NULL;
+    }
+
+    /**
+     * Moves identical items into the stacks of the items before them, destroying the items that end up empty.
+     */
+    private void mergeStacks(List<EntityRef> items) {
+        if (items.size() < 2) {
+            return;
+        }
+        int kept = 0;
+        for (EntityRef item : items) {
+            ItemComponent from = item.getComponent(ItemComponent.class);
+            for (int i = 0; i < kept && from != null && from.stackCount > 0; i++) {
+                EntityRef into = items.get(i);
+                ItemComponent intoComponent = into.getComponent(ItemComponent.class);
+                if (intoComponent == null || !InventoryUtils.isSameItem(into, item)) {
+                    continue;
+                }
+                int moved = Math.min(from.stackCount, intoComponent.maxStackSize - intoComponent.stackCount);
+                if (moved > 0) {
+                    intoComponent.stackCount += moved;
+                    from.stackCount -= moved;
+                    into.saveComponent(intoComponent);
+                }
+            }
+            if (from != null && from.stackCount == 0) {
+                item.destroy();
+            } else {
+                if (from != null) {
+                    item.saveComponent(from);
+                }
+                items.set(kept++, item);
+            }
+        }
+        items.subList(kept, items.size()).clear();
+    }
+
+    /**
+     * Hands an item that reached the end of its pipe to the block behind it. If an inventory does not take the item,
+     * the item stays at the end of the pipe, blocked, until the inventory is no longer marked as full. Items not taken
+     * by any other block are dropped, as they always were.
+     *
+     * @return false if the item is still in the pipe.
+     */
+    private boolean handOff(EntityRef target, EntityRef item) {
+        PathFollowerComponent pathFollowerComponent = item.getComponent(PathFollowerComponent.class);
+        ItemComponent itemComponent = item.getComponent(ItemComponent.class);
+        int count = itemComponent != null ? itemComponent.stackCount : 1;
+        if (target.send(new PipeInsertEvent(item, pathFollowerComponent.segmentMeta)).isConsumed()) {
+            deliveredItems.adjustOrPutValue(target, count, count);
+            return true;
+        }
+        if (target.hasComponent(InventoryComponent.class)) {
+            pipeNetworkSystem.markSinkFull(target);
+            hold(item);
+            return false;
+        }
+        if (item.hasComponent(PipeFollowingComponent.class)) {
+            pipeSystem.dropItem(item);
+        }
+        return true;
+    }
+
+    /**
+     * Keeps an item waiting at the end of its segment.
+     */
+    private void hold(EntityRef item) {
+        PathFollowerComponent pathFollowerComponent = item.getComponent(PathFollowerComponent.class);
+        PipeFollowingComponent pipeFollowingComponent = item.getComponent(PipeFollowingComponent.class);
+        SegmentMeta meta = pathFollowerComponent.segmentMeta;
+        meta.distance = meta.sign > 0 ? pipeSystem.getSegment(meta.prefab).maxDistance() : 0;
+        pipeFollowingComponent.velocity = PipeMotion.MIN_VELOCITY;
+        item.saveComponent(pathFollowerComponent);
+        item.saveComponent(pipeFollowingComponent);
+    }
+
+    /**
+     * Scratch state for stepping the items of one network. The step of the main thread applies its changes right away;
+     * deferred steps run on worker threads, only touch their own network and collect everything else for
+     * {@link #commit}.
+     */
+    private final class NetworkStep {
+        private final boolean deferred;
+        private final PipeBlockSegmentMapper mapper;
+        private final TObjectIntMap<EntityRef> pendingOccupancy = new TObjectIntHashMap<>();
+        private final TIntList stepped = new TIntArrayList();
+        private final TIntList exited = new TIntArrayList();
+        private final TIntList undecidedItems = new TIntArrayList();
+        private PipeNetwork network;
+        private boolean blocked;
+        private boolean frozen;
+        private boolean undecided;
+        private float overshoot;
+
+        private NetworkStep(PipeBlockSegmentMapper mapper, boolean deferred) {
+            this.deferred = deferred;
+            this.mapper = mapper != null ? mapper
+                : new PipeBlockSegmentMapper(pipeNetworkSystem, pipeSystem, pipeMetrics, pendingOccupancy, fullSinks);
+        }
+
+        private void run() {
+            PipeItemBuffer items = network.getItems();
+            while (items.size() > 0 && items.getNextEventTime() <= clock) {
+                int i = items.peek();
+                if (catchUp(this, items, i)) {
+                    stepped.add(i);
+                }
+            }
+        }
+
+        private PipeNode getNode(Vector3ic position) {
+            return deferred ? network.getMember(position) : pipeNetworkSystem.getNode(position);
+        }
+
+        private void move(EntityRef from, EntityRef to) {
+            if (deferred) {
+                pendingOccupancy.adjustOrPutValue(from, -1, -1);
+                pendingOccupancy.adjustOrPutValue(to, 1, 1);
+            } else {
+                pipeSystem.vacate(from);
+                pipeSystem.occupy(to);
+            }
         }
     }
 }
@@ -0,0 +1,75 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import org.terasology.engine.core.Time;
+import org.terasology.engine.entitySystem.entity.EntityManager;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
+import org.terasology.engine.entitySystem.systems.RegisterMode;
+import org.terasology.engine.entitySystem.systems.RegisterSystem;
+import org.terasology.engine.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.engine.logic.location.LocationComponent;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.world.BlockEntityRegistry;
+import org.terasology.itempipes.components.PipeTransitComponent;
+import org.terasology.itempipes.network.PipeMotion;
+import org.terasology.segmentedpaths.SegmentMeta;
+import org.terasology.segmentedpaths.components.PathFollowerComponent;
+import org.terasology.segmentedpaths.controllers.PathFollowerSystem;
+
+/**
+ * Moves the items in pipes on remote clients while the server only replicates their segment transitions, see
+ * {@link BlockMotionSystem#setReplicatedTransitions}. The position of each item is extrapolated along its segment from
+ * the replicated motion and stops at the end of the segment until the server reports the next one.
+ */
+@RegisterSystem(RegisterMode.REMOTE_CLIENT)
+public class PipeInterpolationSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+    @In
+    private EntityManager entityManager;
+    @In
+    private Time time;
+    @In
+    private BlockEntityRegistry blockEntityRegistry;
+    @In
+    private PathFollowerSystem pathFollowerSystem;
+
+    @Override
+    public void update(float delta) {
+        long now = time.getGameTimeInMs();
+        for (EntityRef item : entityManager.getEntitiesWith(PipeTransitComponent.class, LocationComponent.class)) {
+            PipeTransitComponent transit = item.getComponent(PipeTransitComponent.class);
+            if (transit.path == null) {
+                continue;
+            }
+            float elapsed = Math.max(now - transit.startTime, 0) / 1000f;
+            float distance = transit.distance + transit.sign * PipeMotion.distanceAt(transit.velocity, transit.friction, elapsed);
+            distance = Math.max(0, Math.min(distance, transit.maxDistance));
+
+            EntityRef pipe = blockEntityRegistry.getBlockEntityAt(transit.position);
+            PathFollowerComponent pathFollowerComponent = item.getComponent(PathFollowerComponent.class);
+            if (pathFollowerComponent == null || pathFollowerComponent.segmentMeta == null) {
+                if (pathFollowerComponent == null) {
+                    pathFollowerComponent = new PathFollowerComponent();
+                }
+                pathFollowerComponent.segmentMeta = new SegmentMeta(distance, pipe, transit.path);
+                pathFollowerComponent.segmentMeta.sign = transit.sign;
+                item.addOrSaveComponent(pathFollowerComponent);
+            } else {
+                // only the distance moves between transitions, which needs no change event
+                SegmentMeta meta = pathFollowerComponent.segmentMeta;
+                meta.distance = distance;
+                meta.sign = transit.sign;
+                if (meta.prefab != transit.path || meta.association != pipe) {
+                    meta.prefab = transit.path;
+                    meta.association = pipe;
+                    item.saveComponent(pathFollowerComponent);
+                }
+            }
+
+            LocationComponent locationComponent = item.getComponent(LocationComponent.class);
+            locationComponent.setWorldPosition(pathFollowerSystem.vehiclePoint(item));
+            item.saveComponent(locationComponent);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import org.terasology.engine.entitySystem.entity.EntityManager;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.entity.internal.EngineEntityManager;
+import org.terasology.engine.persistence.serializers.EntitySerializer;
+import org.terasology.itempipes.network.PipeItemBuffer;
+
+/**
+ * Virtual items: parks the entities of items held by the batched transport as serialized records in the item buffer
+ * and recreates them when they are needed again. Disabled unless switched on.
+ */
+final class PipeItemParking {
+    private final EntitySerializer entitySerializer;
+    private boolean enabled;
+    private boolean swapping;
+
+    PipeItemParking(EntityManager entityManager) {
+        entitySerializer = new EntitySerializer((EngineEntityManager) entityManager);
+        entitySerializer.setIgnoringEntityId(true);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return whether an entity is being parked or recreated right now, so its lifecycle events are not those of an
+     *     item entering or leaving the pipes.
+     */
+    boolean isSwapping() {
+        return swapping;
+    }
+
+    /**
+     * Serializes the entity of an item and destroys it, keeping only the record in the buffer.
+     */
+    void park(PipeItemBuffer items, int index) {
+        EntityRef item = items.items[index];
+        items.park(index, entitySerializer.serialize(item));
+        swapping = true;
+        try {
+            item.destroy();
+        } finally {
+            swapping = false;
+        }
+    }
+
+    /**
+     * Recreates the entity of a parked item.
+     */
+    void unpark(PipeItemBuffer items, int index) {
+        swapping = true;
+        try {
+            items.unpark(index, entitySerializer.deserialize(items.records[index]));
+        } finally {
+            swapping = false;
+        }
+    }
+}
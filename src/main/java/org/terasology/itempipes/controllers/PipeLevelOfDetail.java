@@ -0,0 +1,129 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.terasology.engine.entitySystem.entity.EntityManager;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.logic.location.LocationComponent;
+import org.terasology.engine.network.ClientComponent;
+import org.terasology.engine.world.block.BlockComponent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which pipes are too far from every player for the locations of their items to be worth updating, and
+ * remembers the items whose location was left as it is. Disabled while the distance is 0.
+ */
+final class PipeLevelOfDetail {
+    /**
+     * Seconds between two lookups of the player positions.
+     */
+    private static final float REFRESH = .5f;
+
+    private final EntityManager entityManager;
+    private final List<Vector3f> viewers = new ArrayList<>();
+    private final Set<EntityRef> distantItems = new HashSet<>();
+    private final Vector3i blockPosition = new Vector3i();
+    private float distance;
+    private double nextRefresh;
+
+    PipeLevelOfDetail(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    float getDistance() {
+        return distance;
+    }
+
+    /**
+     * @param distance the distance in blocks, or 0 to disable the level of detail.
+     * @param clock the current time of the transport in seconds, from which on the player positions are looked up.
+     */
+    void setDistance(float distance, double clock) {
+        this.distance = distance;
+        nextRefresh = clock;
+        if (distance <= 0) {
+            viewers.clear();
+        }
+    }
+
+    /**
+     * Looks up the player positions again if they are due.
+     *
+     * @param clock the current time of the transport in seconds.
+     */
+    void refresh(double clock) {
+        if (distance <= 0 || clock < nextRefresh) {
+            return;
+        }
+        nextRefresh = clock + REFRESH;
+        viewers.clear();
+        for (EntityRef client : entityManager.getEntitiesWith(ClientComponent.class)) {
+            ClientComponent clientComponent = client.getComponent(ClientComponent.class);
+            EntityRef character = clientComponent != null ? clientComponent.character : null;
+            LocationComponent location = character != null ? character.getComponent(LocationComponent.class) : null;
+            if (location != null) {
+                viewers.add(location.getWorldPosition(new Vector3f()));
+            }
+        }
+    }
+
+    /**
+     * Keeps the next lookup due at the same moment when the transport clock starts over.
+     *
+     * @param clock the time of the transport in seconds the clock is set back by.
+     */
+    void rewind(double clock) {
+        nextRefresh -= clock;
+    }
+
+    /**
+     * @param pipe a pipe block entity.
+     * @return whether no player is close enough to the pipe to see its items.
+     */
+    boolean isDistant(EntityRef pipe) {
+        if (distance <= 0) {
+            return false;
+        }
+        BlockComponent blockComponent = pipe.getComponent(BlockComponent.class);
+        return blockComponent != null && isDistant(blockComponent.getPosition(blockPosition));
+    }
+
+    boolean isDistant(Vector3ic position) {
+        if (distance <= 0) {
+            return false;
+        }
+        float limit = distance * distance;
+        for (Vector3f viewer : viewers) {
+            if (viewer.distanceSquared(position.x(), position.y(), position.z()) <= limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remembers that the location of an item was left as it is.
+     */
+    void skip(EntityRef item) {
+        distantItems.add(item);
+    }
+
+    /**
+     * @return whether the location of the item was left as it is since it was last written, which is forgotten.
+     */
+    boolean resume(EntityRef item) {
+        return distantItems.remove(item);
+    }
+
+    void clear() {
+        viewers.clear();
+        distantItems.clear();
+    }
+}
@@ -0,0 +1,185 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import org.joml.Vector3i;
+import org.terasology.engine.core.Time;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
+import org.terasology.engine.entitySystem.systems.RegisterMode;
+import org.terasology.engine.entitySystem.systems.RegisterSystem;
+import org.terasology.engine.logic.console.commandSystem.annotations.Command;
+import org.terasology.engine.logic.permission.PermissionManager;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.registry.Share;
+import org.terasology.engine.world.block.BlockComponent;
+import org.terasology.itempipes.network.PipeNetwork;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Counters describing what the pipes do: items inserted, delivered and dropped, junction decisions, the time spent in
+ * the transport update and how many items entered each pipe. All counters are lock-free and may be bumped from any
+ * thread. The {@code pipeStats} console command reports them, as rates since the previous report.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(value = PipeMetrics.class)
+public class PipeMetrics extends BaseComponentSystem {
+    private static final int TOP_PIPES = 5;
+
+    @In
+    private Time time;
+    @In
+    private BlockMotionSystem blockMotionSystem;
+
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder sucked = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder junctionDecisions = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder updateNanos = new LongAdder();
+    private final ConcurrentMap<EntityRef, LongAdder> pipeEntries = new ConcurrentHashMap<>();
+
+    private long[] lastReport = new long[Counter.values().length];
+    private long lastReportTime;
+
+    @Override
+    public void shutdown() {
+        pipeEntries.clear();
+    }
+
+    public void itemInserted() {
+        inserted.increment();
+    }
+
+    public void itemSucked() {
+        sucked.increment();
+    }
+
+    public void itemDelivered() {
+        delivered.increment();
+    }
+
+    public void itemDropped() {
+        dropped.increment();
+    }
+
+    public void junctionDecision() {
+        junctionDecisions.increment();
+    }
+
+    public void updateFinished(long nanos) {
+        updates.increment();
+        updateNanos.add(nanos);
+    }
+
+    /**
+     * Counts items entering a pipe, which adds up to the load of the pipe.
+     */
+    public void pipeEntered(EntityRef pipe, int count) {
+        pipeEntries.computeIfAbsent(pipe, key -> new LongAdder()).add(count);
+    }
+
+    public void pipeRemoved(EntityRef pipe) {
+        pipeEntries.remove(pipe);
+    }
+
+    public long get(Counter counter) {
+        switch (counter) {
+            case INSERTED:
+                return inserted.sum();
+            case SUCKED:
+                return sucked.sum();
+            case DELIVERED:
+                return delivered.sum();
+            case DROPPED:
+                return dropped.sum();
+            case JUNCTION_DECISIONS:
+                return junctionDecisions.sum();
+            case UPDATES:
+                return updates.sum();
+            case UPDATE_NANOS:
+                return updateNanos.sum();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return how many items entered the given pipe so far.
+     */
+    public long getPipeEntries(EntityRef pipe) {
+        LongAdder entries = pipeEntries.get(pipe);
+        return entries != null ? entries.sum() : 0;
+    }
+
+    @Command(shortDescription = "Reports what the item pipes did since the last report",
+        runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String pipeStats() {
+        long now = time.getGameTimeInMs();
+        float seconds = Math.max(now - lastReportTime, 1) / 1000f;
+        long[] current = new long[Counter.values().length];
+        long[] delta = new long[current.length];
+        for (Counter counter : Counter.values()) {
+            current[counter.ordinal()] = get(counter);
+            delta[counter.ordinal()] = current[counter.ordinal()] - lastReport[counter.ordinal()];
+        }
+        lastReport = current;
+        lastReportTime = now;
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("in flight: %d%n", blockMotionSystem.getInFlight()));
+        for (Counter counter : new Counter[]{Counter.INSERTED, Counter.SUCKED, Counter.DELIVERED, Counter.DROPPED,
+            Counter.JUNCTION_DECISIONS}) {
+            report.append(String.format("%s: %d (%.1f/s)%n", counter.label, current[counter.ordinal()],
+                delta[counter.ordinal()] / seconds));
+        }
+        long updateCount = delta[Counter.UPDATES.ordinal()];
+        report.append(String.format("update: %.3f ms/tick over %d ticks%n",
+            updateCount > 0 ? delta[Counter.UPDATE_NANOS.ordinal()] / 1e6 / updateCount : 0, updateCount));
+
+        List<PipeNetwork> networks = blockMotionSystem.getAwakeNetworks();
+        report.append(String.format("awake networks: %d%n", networks.size()));
+        networks.stream()
+            .sorted(Comparator.comparingInt((PipeNetwork network) -> network.getItems().size()).reversed())
+            .limit(TOP_PIPES)
+            .forEach(network -> report.append(String.format("  network %d: %d items, %d pipes%n", network.getId(),
+                network.getItems().size(), network.getMembers().size())));
+
+        List<Map.Entry<EntityRef, Long>> busiest = pipeEntries.entrySet().stream()
+            .map(entry -> Map.entry(entry.getKey(), entry.getValue().sum()))
+            .sorted(Map.Entry.<EntityRef, Long>comparingByValue().reversed())
+            .limit(TOP_PIPES)
+            .collect(Collectors.toList());
+        report.append("busiest pipes:");
+        for (Map.Entry<EntityRef, Long> entry : busiest) {
+            BlockComponent blockComponent = entry.getKey().getComponent(BlockComponent.class);
+            report.append(String.format("%n  %s: %d items", blockComponent != null ? blockComponent.getPosition(new Vector3i()) : entry.getKey(),
+                entry.getValue()));
+        }
+        return report.toString();
+    }
+
+    public enum Counter {
+        INSERTED("inserted"),
+        SUCKED("sucked"),
+        DELIVERED("delivered"),
+        DROPPED("dropped"),
+        JUNCTION_DECISIONS("junction decisions"),
+        UPDATES("updates"),
+        UPDATE_NANOS("update time");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+}
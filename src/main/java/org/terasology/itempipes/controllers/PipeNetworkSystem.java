@@ -0,0 +1,493 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.terasology.engine.core.Time;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
+import org.terasology.engine.entitySystem.systems.RegisterMode;
+import org.terasology.engine.entitySystem.systems.RegisterSystem;
+import org.terasology.engine.math.Rotation;
+import org.terasology.engine.math.Side;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.registry.Share;
+import org.terasology.engine.world.BlockEntityRegistry;
+import org.terasology.engine.world.OnChangedBlock;
+import org.terasology.engine.world.WorldComponent;
+import org.terasology.engine.world.WorldProvider;
+import org.terasology.engine.world.block.Block;
+import org.terasology.engine.world.block.BlockComponent;
+import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.engine.world.chunks.Chunks;
+import org.terasology.engine.world.chunks.event.BeforeChunkUnload;
+import org.terasology.engine.world.chunks.event.OnChunkLoaded;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
+import org.terasology.itempipes.components.PipeComponent;
+import org.terasology.itempipes.components.PipeDestinationRoutingComponent;
+import org.terasology.itempipes.components.PipeFilterMappingComponent;
+import org.terasology.itempipes.components.PipeRandomMappingComponent;
+import org.terasology.itempipes.components.PipeRoundRobinMappingComponent;
+import org.terasology.itempipes.components.PipeWeightedMappingComponent;
+import org.terasology.itempipes.network.DestinationRoutingPolicy;
+import org.terasology.itempipes.network.FilterRoutingPolicy;
+import org.terasology.itempipes.network.PipeEndpoints;
+import org.terasology.itempipes.network.PipeItemKinds;
+import org.terasology.itempipes.network.PipeItemMatcher;
+import org.terasology.itempipes.network.PipeJunction;
+import org.terasology.itempipes.network.PipeNetwork;
+import org.terasology.itempipes.network.PipeNode;
+import org.terasology.itempipes.network.PipeRoutingPolicy;
+import org.terasology.itempipes.network.PipeTransition;
+import org.terasology.itempipes.network.RandomRoutingPolicy;
+import org.terasology.itempipes.network.RoundRobinRoutingPolicy;
+import org.terasology.itempipes.network.WeightedRoutingPolicy;
+import org.terasology.module.inventory.components.InventoryComponent;
+import org.terasology.module.inventory.events.InventorySlotChangedEvent;
+import org.terasology.segmentedpaths.blocks.PathFamily;
+import org.terasology.segmentedpaths.components.PathDescriptorComponent;
+import org.terasology.segmentedpaths.controllers.SegmentCacheSystem;
+import org.terasology.segmentedpaths.controllers.SegmentMapping;
+import org.terasology.segmentedpaths.controllers.SegmentSystem;
+import org.terasology.segmentedpaths.segments.Segment;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains the pipe network graph: for every pipe block and every (path prefab, segment end) pair the candidate
+ * transitions onto the neighbouring block are computed once and reused until a pipe next to it is placed or removed.
+ * <p>
+ * Junctions with several ways out route items towards the nearest inventory of the network that has space if the block
+ * they lead into has a {@link PipeDestinationRoutingComponent}, or else with the policy registered for a component of
+ * that block. Without either, the {@code PipeMappingEvent} handlers decide.
+ * <p>
+ * Segment ends leading into chunks that are not loaded get junctions marked as unloaded, at which items wait. The
+ * blocks next to a chunk are rebuilt whenever it is loaded or unloaded.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(value = PipeNetworkSystem.class)
+public class PipeNetworkSystem extends BaseComponentSystem {
+    private static final long SINK_RETRY_MS = 1000;
+
+    @In
+    private WorldProvider worldProvider;
+    @In
+    private BlockEntityRegistry blockEntityRegistry;
+    @In
+    private SegmentSystem segmentSystem;
+    @In
+    private SegmentCacheSystem segmentCacheSystem;
+    @In
+    private PipeSystem pipeSystem;
+    @In
+    private PipeRandomSystem pipeRandomSystem;
+    @In
+    private Time time;
+
+    private final Map<Vector3ic, PipeNode> nodes = Maps.newHashMap();
+    private final Map<EntityRef, PipeNode> nodesByEntity = Maps.newHashMap();
+    private final Map<Class<? extends Component>, PipeRoutingPolicy.Factory> routingPolicies = new LinkedHashMap<>();
+    private final TObjectLongMap<EntityRef> fullSinks = new TObjectLongHashMap<>();
+    private final PipeItemKinds itemKinds = new PipeItemKinds();
+    private int nextNetworkId;
+
+    @Override
+    public void initialise() {
+        registerRoutingPolicy(PipeRandomMappingComponent.class, (block, junction) ->
+            new RandomRoutingPolicy(junction, pipeRandomSystem.createRandom(junction.getNeighbor())));
+        registerRoutingPolicy(PipeRoundRobinMappingComponent.class,
+            (block, junction) -> new RoundRobinRoutingPolicy(junction));
+        registerRoutingPolicy(PipeWeightedMappingComponent.class, this::createWeightedPolicy);
+        registerRoutingPolicy(PipeFilterMappingComponent.class, this::createFilterPolicy);
+    }
+
+    @Override
+    public void shutdown() {
+        nodes.clear();
+        nodesByEntity.clear();
+        routingPolicies.clear();
+        fullSinks.clear();
+    }
+
+    /**
+     * @return the ids of the item kinds routing policies match items by.
+     */
+    public PipeItemKinds getItemKinds() {
+        return itemKinds;
+    }
+
+    /**
+     * Keeps items from being routed or handed to a block until the contents of its inventory change, or for a second
+     * if it has none or only refused some of the items.
+     *
+     * @param sink a block that did not take an item handed to it.
+     */
+    public void markSinkFull(EntityRef sink) {
+        fullSinks.put(sink, time.getGameTimeInMs() + SINK_RETRY_MS);
+    }
+
+    public boolean isSinkFull(EntityRef sink) {
+        return !fullSinks.isEmpty() && fullSinks.get(sink) > time.getGameTimeInMs();
+    }
+
+    /**
+     * Copies the blocks currently marked as full, for lookups off the main thread.
+     *
+     * @param into the set to fill, cleared first.
+     */
+    public void copyFullSinks(Set<EntityRef> into) {
+        into.clear();
+        long now = time.getGameTimeInMs();
+        fullSinks.forEachEntry((sink, expiry) -> {
+            if (expiry > now) {
+                into.add(sink);
+            }
+            return true;
+        });
+    }
+
+    @ReceiveEvent(components = {InventoryComponent.class})
+    public void onInventoryChanged(InventorySlotChangedEvent event, EntityRef entityRef) {
+        if (!fullSinks.isEmpty()) {
+            fullSinks.remove(entityRef);
+        }
+    }
+
+    /**
+     * Routes items entering blocks with the given component with the policies created by the factory. Policies are
+     * resolved when the graph around a block is built; blocks without a registered component fall back to the
+     * {@code PipeMappingEvent}. If a block has several registered components, the one registered first wins.
+     *
+     * @param componentClass the component marking the blocks to route.
+     * @param factory creates the policy for each junction leading into such a block.
+     */
+    public void registerRoutingPolicy(Class<? extends Component> componentClass, PipeRoutingPolicy.Factory factory) {
+        routingPolicies.put(componentClass, factory);
+        Lists.newArrayList(nodes.keySet()).forEach(this::remove);
+    }
+
+    @ReceiveEvent(components = {BlockComponent.class})
+    public void onBlockChanged(OnChangedBlock event, EntityRef entityRef) {
+        invalidate(event.getBlockPosition());
+    }
+
+    @ReceiveEvent(components = {PipeComponent.class})
+    public void onPipeActivated(OnActivatedComponent event, EntityRef entityRef, BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {PipeDestinationRoutingComponent.class})
+    public void onDestinationRoutingActivated(OnActivatedComponent event, EntityRef entityRef,
+                                              BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {PipeDestinationRoutingComponent.class})
+    public void onDestinationRoutingDeactivated(BeforeDeactivateComponent event, EntityRef entityRef,
+                                                BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {PipeWeightedMappingComponent.class})
+    public void onWeightsChanged(OnChangedComponent event, EntityRef entityRef, BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {PipeFilterMappingComponent.class})
+    public void onFiltersChanged(OnChangedComponent event, EntityRef entityRef, BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {PipeComponent.class})
+    public void onPipeChanged(OnChangedComponent event, EntityRef entityRef, BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {PipeComponent.class})
+    public void onPipeDeactivated(BeforeDeactivateComponent event, EntityRef entityRef, BlockComponent blockComponent) {
+        invalidate(blockComponent.getPosition(new Vector3i()));
+    }
+
+    @ReceiveEvent(components = {WorldComponent.class})
+    public void onChunkLoaded(OnChunkLoaded event, EntityRef worldEntity) {
+        removeBorder(event.getChunkPos(), true);
+    }
+
+    @ReceiveEvent(components = {WorldComponent.class})
+    public void onBeforeChunkUnload(BeforeChunkUnload event, EntityRef worldEntity) {
+        removeBorder(event.getChunkPos(), false);
+    }
+
+    /**
+     * Drops the cached nodes with a junction leading into the given chunk, so they are rebuilt once its blocks are
+     * (or are no longer) available.
+     *
+     * @param unloaded true to only look at junctions built while the chunk was not loaded, false for the others.
+     */
+    private void removeBorder(Vector3ic chunkPos, boolean unloaded) {
+        Vector3i chunk = new Vector3i();
+        List<Vector3ic> border = Lists.newArrayList();
+        for (PipeNode node : nodes.values()) {
+            for (PipeJunction junction : node.getJunctions()) {
+                if (junction.isUnloaded() == unloaded
+                    && Chunks.toChunkPos(junction.getNeighbor(), chunk).equals(chunkPos.x(), chunkPos.y(), chunkPos.z())) {
+                    border.add(node.getPosition());
+                    break;
+                }
+            }
+        }
+        border.forEach(this::remove);
+    }
+
+    /**
+     * Drops the cached nodes at the given location and around it, so they are rebuilt on next access.
+     *
+     * @param location the location of the block that changed.
+     */
+    public void invalidate(Vector3ic location) {
+        remove(location);
+        Vector3i neighbor = new Vector3i();
+        for (Side side : Side.values()) {
+            remove(neighbor.set(location).add(side.direction()));
+        }
+    }
+
+    private void remove(Vector3ic location) {
+        PipeNode node = nodes.remove(location);
+        if (node != null) {
+            nodesByEntity.remove(node.getEntity());
+            node.invalidate();
+            if (node.getNetwork() != null) {
+                node.getNetwork().dissolve();
+            }
+        }
+    }
+
+    /**
+     * Resolves the network a block belongs to, walking the graph from it if the network is not known yet.
+     *
+     * @param node a node of the graph.
+     * @return the network containing the node.
+     */
+    public PipeNetwork getNetwork(PipeNode node) {
+        PipeNetwork network = node.getNetwork();
+        if (network != null) {
+            return network;
+        }
+        network = new PipeNetwork(nextNetworkId++);
+        Deque<PipeNode> open = new ArrayDeque<>();
+        network.addMember(node);
+        open.add(node);
+        while (!open.isEmpty()) {
+            PipeNode current = open.poll();
+            for (PipeJunction junction : current.getJunctions()) {
+                if (junction.size() == 0) {
+                    continue;
+                }
+                PipeNode neighbor = getNode(junction.getNeighbor());
+                if (neighbor != null && neighbor.getNetwork() != network) {
+                    if (neighbor.getNetwork() != null) {
+                        neighbor.getNetwork().dissolve();
+                    }
+                    network.addMember(neighbor);
+                    open.add(neighbor);
+                }
+            }
+        }
+        return network;
+    }
+
+    /**
+     * @param blockEntity the block entity an item is currently associated with.
+     * @return the graph node for the block, or null if the block does not carry any paths.
+     */
+    public PipeNode getNode(EntityRef blockEntity) {
+        PipeNode node = nodesByEntity.get(blockEntity);
+        if (node != null) {
+            return node;
+        }
+        BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
+        if (blockComponent == null) {
+            return null;
+        }
+        return getNode(blockComponent.getPosition(new Vector3i()));
+    }
+
+    /**
+     * @param location the location of a block.
+     * @return the graph node for the block, or null if the block does not carry any paths.
+     */
+    public PipeNode getNode(Vector3ic location) {
+        PipeNode node = nodes.get(location);
+        if (node == null) {
+            node = buildNode(new Vector3i(location));
+            if (node != null) {
+                nodes.put(node.getPosition(), node);
+                nodesByEntity.put(node.getEntity(), node);
+            }
+        }
+        return node;
+    }
+
+    private PipeNode buildNode(Vector3i location) {
+        EntityRef entity = blockEntityRegistry.getBlockEntityAt(location);
+        BlockComponent blockComponent = entity.getComponent(BlockComponent.class);
+        PathDescriptorComponent pathDescriptor = entity.getComponent(PathDescriptorComponent.class);
+        if (blockComponent == null || pathDescriptor == null) {
+            return null;
+        }
+        Block block = blockComponent.getBlock();
+        BlockFamily blockFamily = block.getBlockFamily();
+        if (!(blockFamily instanceof PathFamily)) {
+            return null;
+        }
+        Rotation rotation = pipeSystem.getRotation(block);
+        PipeComponent pipeComponent = entity.getComponent(PipeComponent.class);
+        float friction = pipeComponent != null ? pipeComponent.friction : 0f;
+        int capacity = pipeComponent != null ? pipeComponent.capacity : 0;
+
+        Vector3f v1 = segmentSystem.segmentPosition(entity);
+        Quaternionf q1 = segmentSystem.segmentRotation(entity);
+
+        Map<Prefab, PipeJunction> startJunctions = Maps.newHashMap();
+        Map<Prefab, PipeJunction> endJunctions = Maps.newHashMap();
+        for (Prefab prefab : pathDescriptor.descriptors) {
+            PipeEndpoints endpoints = pipeSystem.getEndpoints(prefab, rotation);
+            if (endpoints == null) {
+                continue;
+            }
+            Segment segment = segmentCacheSystem.getSegment(prefab);
+            Vector3i start = new Vector3i(location).add(endpoints.getStartSide().direction());
+            Vector3i end = new Vector3i(location).add(endpoints.getEndSide().direction());
+            startJunctions.put(prefab, buildJunction(segment, v1, q1, start, SegmentMapping.SegmentEnd.START));
+            endJunctions.put(prefab, buildJunction(segment, v1, q1, end, SegmentMapping.SegmentEnd.END));
+        }
+        PipeNode node = new PipeNode(location, entity, rotation, friction, capacity, startJunctions, endJunctions);
+        for (PipeJunction junction : node.getJunctions()) {
+            if (junction.getSideTransitions().length > 1) {
+                junction.setRoutingPolicy(resolveRoutingPolicy(node, junction));
+            }
+        }
+        return node;
+    }
+
+    private PipeJunction buildJunction(Segment currentSegment, Vector3f v1, Quaternionf q1, Vector3i neighbor,
+                                       SegmentMapping.SegmentEnd ends) {
+        if (!worldProvider.isBlockRelevant(neighbor)) {
+            return new PipeJunction(neighbor, EntityRef.NULL, Lists.newArrayList(), true);
+        }
+        EntityRef blockEntity = blockEntityRegistry.getBlockEntityAt(neighbor);
+        List<PipeTransition> transitions = Lists.newArrayList();
+        PathDescriptorComponent pathDescriptor = blockEntity.getComponent(PathDescriptorComponent.class);
+        if (pathDescriptor == null) {
+            return new PipeJunction(neighbor, blockEntity, transitions);
+        }
+
+        Vector3f v2 = segmentSystem.segmentPosition(blockEntity);
+        Quaternionf q2 = segmentSystem.segmentRotation(blockEntity);
+        BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
+        Rotation rotation = blockComponent != null ? pipeSystem.getRotation(blockComponent.getBlock()) : Rotation.none();
+        PipeComponent pipeComponent = blockEntity.getComponent(PipeComponent.class);
+        int capacity = pipeComponent != null ? pipeComponent.capacity : 0;
+
+        for (Prefab d : pathDescriptor.descriptors) {
+            Segment nextSegment = segmentCacheSystem.getSegment(d);
+            PipeEndpoints endpoints = pipeSystem.getEndpoints(d, rotation);
+            if (endpoints == null) {
+                continue;
+            }
+            Side s1 = endpoints.getStartSide();
+            Side s2 = endpoints.getEndSide();
+            float maxDistance = endpoints.getMaxDistance();
+            switch (segmentSystem.segmentMatch(currentSegment, v1, q1, nextSegment, v2, q2)) {
+                case Start_End:
+                    if (ends == SegmentMapping.SegmentEnd.START) {
+                        transitions.add(new PipeTransition(neighbor, blockEntity, d, s1, true, maxDistance, capacity));
+                    }
+                    break;
+                case Start_Start:
+                    if (ends == SegmentMapping.SegmentEnd.START) {
+                        transitions.add(new PipeTransition(neighbor, blockEntity, d, s2, false, maxDistance, capacity));
+                    }
+                    break;
+                case End_End:
+                    if (ends == SegmentMapping.SegmentEnd.END) {
+                        transitions.add(new PipeTransition(neighbor, blockEntity, d, s1, true, maxDistance, capacity));
+                    }
+                    break;
+                case End_Start:
+                    if (ends == SegmentMapping.SegmentEnd.END) {
+                        transitions.add(new PipeTransition(neighbor, blockEntity, d, s2, false, maxDistance, capacity));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new PipeJunction(neighbor, blockEntity, transitions);
+    }
+
+    private PipeRoutingPolicy resolveRoutingPolicy(PipeNode node, PipeJunction junction) {
+        EntityRef blockEntity = junction.getNeighborEntity();
+        if (blockEntity.hasComponent(PipeDestinationRoutingComponent.class)) {
+            return new DestinationRoutingPolicy(this, node);
+        }
+        for (Map.Entry<Class<? extends Component>, PipeRoutingPolicy.Factory> entry : routingPolicies.entrySet()) {
+            if (blockEntity.hasComponent(entry.getKey())) {
+                return entry.getValue().create(blockEntity, junction);
+            }
+        }
+        return null;
+    }
+
+    private PipeRoutingPolicy createWeightedPolicy(EntityRef blockEntity, PipeJunction junction) {
+        PipeWeightedMappingComponent component = blockEntity.getComponent(PipeWeightedMappingComponent.class);
+        Map<Side, Float> weights = new EnumMap<>(Side.class);
+        for (Map.Entry<String, Float> weight : component.weights.entrySet()) {
+            Side side = parseSide(weight.getKey());
+            if (side != null) {
+                weights.put(side, weight.getValue());
+            }
+        }
+        return new WeightedRoutingPolicy(junction, weights, pipeRandomSystem.createRandom(junction.getNeighbor()));
+    }
+
+    private PipeRoutingPolicy createFilterPolicy(EntityRef blockEntity, PipeJunction junction) {
+        PipeFilterMappingComponent component = blockEntity.getComponent(PipeFilterMappingComponent.class);
+        Map<Side, PipeItemMatcher> filters = new EnumMap<>(Side.class);
+        for (Map.Entry<String, List<String>> filter : component.filters.entrySet()) {
+            Side side = parseSide(filter.getKey());
+            if (side != null) {
+                filters.put(side, new PipeItemMatcher(itemKinds, filter.getValue()));
+            }
+        }
+        return new FilterRoutingPolicy(junction, filters, itemKinds);
+    }
+
+    private static Side parseSide(String name) {
+        for (Side side : Side.values()) {
+            if (side.name().equalsIgnoreCase(name)) {
+                return side;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,318 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import org.joml.Vector3i;
+import org.terasology.engine.entitySystem.entity.EntityManager;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.entity.internal.EngineEntityManager;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.entitySystem.prefab.PrefabManager;
+import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
+import org.terasology.engine.entitySystem.systems.RegisterMode;
+import org.terasology.engine.entitySystem.systems.RegisterSystem;
+import org.terasology.engine.logic.common.lifespan.LifespanComponent;
+import org.terasology.engine.logic.inventory.ItemCommonSystem;
+import org.terasology.engine.logic.inventory.ItemComponent;
+import org.terasology.engine.logic.inventory.PickupComponent;
+import org.terasology.engine.logic.location.LocationComponent;
+import org.terasology.engine.persistence.serializers.EntitySerializer;
+import org.terasology.engine.persistence.serializers.FieldSerializeCheck;
+import org.terasology.engine.physics.components.RigidBodyComponent;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.registry.Share;
+import org.terasology.engine.rendering.logic.MeshComponent;
+import org.terasology.engine.world.WorldComponent;
+import org.terasology.engine.world.block.BlockComponent;
+import org.terasology.engine.world.block.BlockManager;
+import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.engine.world.block.items.BlockItemComponent;
+import org.terasology.engine.world.block.items.BlockItemFactory;
+import org.terasology.engine.world.chunks.Chunks;
+import org.terasology.engine.world.chunks.event.BeforeChunkUnload;
+import org.terasology.gestalt.entitysystem.component.Component;
+import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
+import org.terasology.itempipes.components.PipeFollowingComponent;
+import org.terasology.itempipes.components.PipeItemsComponent;
+import org.terasology.itempipes.components.PipeTransitComponent;
+import org.terasology.itempipes.network.PipeItemKinds;
+import org.terasology.protobuf.EntityData;
+import org.terasology.segmentedpaths.SegmentMeta;
+import org.terasology.segmentedpaths.components.PathDescriptorComponent;
+import org.terasology.segmentedpaths.components.PathFollowerComponent;
+import org.terasology.segmentedpaths.controllers.PathFollowerSystem;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the items travelling through pipes as packed records on the pipe blocks instead of as entities.
+ * <p>
+ * While the world is saved, every item in a pipe that can be recreated from its kind and stack count alone is recorded
+ * in a {@link PipeItemsComponent} on its pipe and left out of the save; once the save is done the records are dropped
+ * again. The records are stored with the chunk of the pipe and the items are recreated when the pipe block is loaded.
+ * Items carrying any other state are saved as entities, as before. A chunk unloading during the save keeps its items
+ * as entities, and records of items whose entity still exists are not restored.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(value = PipePersistenceSystem.class)
+public class PipePersistenceSystem extends BaseComponentSystem {
+    @In
+    private EntityManager entityManager;
+    @In
+    private PrefabManager prefabManager;
+    @In
+    private BlockManager blockManager;
+    @In
+    private PathFollowerSystem pathFollowerSystem;
+
+    private EntitySerializer entitySerializer;
+    private BlockItemFactory blockItemFactory;
+    private Set<String> transportTypes;
+    private Set<String> removableTypes;
+    private String itemType;
+    private final Map<BlockFamily, Map<String, EntityData.Component>> blockItemReferences = Maps.newHashMap();
+    private final Map<EntityRef, PipeItemsComponent> stores = Maps.newHashMap();
+    private final ListMultimap<EntityRef, EntityRef> stored = ArrayListMultimap.create();
+    private final Vector3i chunkPosition = new Vector3i();
+    private boolean storing;
+
+    @Override
+    public void initialise() {
+        entitySerializer = new EntitySerializer((EngineEntityManager) entityManager);
+        entitySerializer.setIgnoringEntityId(true);
+        blockItemFactory = new BlockItemFactory(entityManager);
+        transportTypes = ImmutableSet.of(typeOf(LocationComponent.class), typeOf(PathFollowerComponent.class),
+            typeOf(PipeFollowingComponent.class), typeOf(PipeTransitComponent.class), typeOf(MeshComponent.class));
+        removableTypes = ImmutableSet.of(typeOf(PickupComponent.class), typeOf(RigidBodyComponent.class),
+            typeOf(LifespanComponent.class));
+        itemType = typeOf(ItemComponent.class);
+    }
+
+    @Override
+    public void shutdown() {
+        blockItemReferences.clear();
+        stores.clear();
+        stored.clear();
+    }
+
+    /**
+     * Records the items in pipes on their pipes and excludes their entities from the save. Called once all items are
+     * written back to their entities.
+     */
+    public void storeItems() {
+        storing = true;
+        try {
+            for (EntityRef item : entityManager.getEntitiesWith(PipeFollowingComponent.class, PathFollowerComponent.class)) {
+                if (item.isPersistent()) {
+                    store(item);
+                }
+            }
+            for (Map.Entry<EntityRef, PipeItemsComponent> store : stores.entrySet()) {
+                store.getKey().addOrSaveComponent(store.getValue());
+            }
+        } finally {
+            storing = false;
+        }
+    }
+
+    /**
+     * Undoes {@link #storeItems} once the save is done.
+     */
+    public void releaseItems() {
+        for (EntityRef pipe : stores.keySet()) {
+            release(pipe);
+        }
+        stores.clear();
+    }
+
+    /**
+     * Saves the items of pipes unloaded in the middle of a save as entities, as the records and the item entities
+     * would otherwise both be stored or both be lost with the chunk.
+     */
+    @ReceiveEvent(components = {WorldComponent.class})
+    public void onBeforeChunkUnload(BeforeChunkUnload event, EntityRef worldEntity) {
+        Iterator<EntityRef> pipes = stores.keySet().iterator();
+        while (pipes.hasNext()) {
+            EntityRef pipe = pipes.next();
+            BlockComponent blockComponent = pipe.getComponent(BlockComponent.class);
+            if (blockComponent == null
+                || Chunks.toChunkPos(blockComponent.getPosition(chunkPosition), chunkPosition).equals(event.getChunkPos())) {
+                release(pipe);
+                pipes.remove();
+            }
+        }
+    }
+
+    private void release(EntityRef pipe) {
+        for (EntityRef item : stored.removeAll(pipe)) {
+            if (item.exists()) {
+                item.setPersistent(true);
+            }
+        }
+        if (pipe.exists()) {
+            pipe.removeComponent(PipeItemsComponent.class);
+        }
+    }
+
+    private void store(EntityRef item) {
+        SegmentMeta meta = item.getComponent(PathFollowerComponent.class).segmentMeta;
+        PathDescriptorComponent pathDescriptor = meta.association.getComponent(PathDescriptorComponent.class);
+        int segment = pathDescriptor != null ? pathDescriptor.descriptors.indexOf(meta.prefab) : -1;
+        String kind = segment >= 0 ? kindOf(item) : null;
+        if (kind == null) {
+            return;
+        }
+        ItemComponent itemComponent = item.getComponent(ItemComponent.class);
+        PipeFollowingComponent pipeFollowingComponent = item.getComponent(PipeFollowingComponent.class);
+        stores.computeIfAbsent(meta.association, key -> new PipeItemsComponent())
+            .add(item.getId(), kind, itemComponent.stackCount, segment, meta.distance, pipeFollowingComponent.velocity,
+                meta.sign);
+        item.setPersistent(false);
+        stored.put(meta.association, item);
+    }
+
+    /**
+     * @return the kind to record for the item, or null if the item carries state that would be lost.
+     */
+    private String kindOf(EntityRef item) {
+        String kind = PipeItemKinds.nameOf(item);
+        if (kind == null) {
+            return null;
+        }
+        Map<String, EntityData.Component> reference = Collections.emptyMap();
+        if (kind.startsWith(PipeItemKinds.BLOCK_PREFIX)) {
+            reference = blockItemReferences.computeIfAbsent(item.getComponent(BlockItemComponent.class).blockFamily,
+                this::createReference);
+        }
+        EntityData.Entity record = entitySerializer.serialize(item, true, FieldSerializeCheck.NullCheck.newInstance());
+        for (String removed : record.getRemovedComponentList()) {
+            if (!removableTypes.contains(removed)) {
+                return null;
+            }
+        }
+        int matched = 0;
+        for (EntityData.Component component : record.getComponentList()) {
+            if (transportTypes.contains(component.getType())) {
+                continue;
+            }
+            EntityData.Component normalized = normalize(component);
+            if (normalized == null && !reference.containsKey(component.getType())) {
+                continue;
+            }
+            if (normalized == null || !normalized.equals(reference.get(component.getType()))) {
+                return null;
+            }
+            matched++;
+        }
+        return matched == reference.size() ? kind : null;
+    }
+
+    /**
+     * Serializes a fresh block item of the given family, which is what a recorded block item is recreated as.
+     */
+    private Map<String, EntityData.Component> createReference(BlockFamily family) {
+        EntityRef reference = blockItemFactory.newInstance(family);
+        EntityData.Entity record = entitySerializer.serialize(reference, true, FieldSerializeCheck.NullCheck.newInstance());
+        reference.destroy();
+        Map<String, EntityData.Component> components = Maps.newHashMap();
+        for (EntityData.Component component : record.getComponentList()) {
+            EntityData.Component normalized = transportTypes.contains(component.getType()) ? null : normalize(component);
+            if (normalized != null) {
+                components.put(component.getType(), normalized);
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Drops the stack count, which is recorded on its own.
+     *
+     * @return the component without the stack count, or null if nothing else is left of it.
+     */
+    private EntityData.Component normalize(EntityData.Component component) {
+        if (!component.getType().equals(itemType)) {
+            return component;
+        }
+        EntityData.Component.Builder builder = component.toBuilder().clearField();
+        for (EntityData.NameValue field : component.getFieldList()) {
+            if (!field.getName().equalsIgnoreCase("stackCount")) {
+                builder.addField(field);
+            }
+        }
+        return builder.getFieldCount() > 0 ? builder.build() : null;
+    }
+
+    @ReceiveEvent(components = {BlockComponent.class})
+    public void onStoredItemsActivated(OnActivatedComponent event, EntityRef pipe, PipeItemsComponent pipeItems) {
+        if (storing) {
+            return;
+        }
+        PathDescriptorComponent pathDescriptor = pipe.getComponent(PathDescriptorComponent.class);
+        for (int i = 0; i < pipeItems.size() && pathDescriptor != null; i++) {
+            int segment = pipeItems.segments.get(i);
+            if (segment >= 0 && segment < pathDescriptor.descriptors.size() && !isInPipe(pipeItems, i)) {
+                restore(pipe, pathDescriptor.descriptors.get(segment), pipeItems, i);
+            }
+        }
+        pipe.removeComponent(PipeItemsComponent.class);
+    }
+
+    /**
+     * @return whether the entity the record was made from is still travelling through the pipes, as it is when the
+     *     pipe was unloaded and loaded again while its items were left out of the save.
+     */
+    private boolean isInPipe(PipeItemsComponent pipeItems, int index) {
+        return index < pipeItems.ids.size()
+            && entityManager.getEntity(pipeItems.ids.get(index)).hasComponent(PipeFollowingComponent.class);
+    }
+
+    private void restore(EntityRef pipe, Prefab path, PipeItemsComponent pipeItems, int index) {
+        String kind = pipeItems.kinds.get(index);
+        int stackCount = pipeItems.stackCounts.get(index);
+        EntityRef item;
+        if (kind.startsWith(PipeItemKinds.BLOCK_PREFIX)) {
+            BlockFamily family = blockManager.getBlockFamily(kind.substring(PipeItemKinds.BLOCK_PREFIX.length()));
+            if (family == null) {
+                return;
+            }
+            item = blockItemFactory.newInstance(family, stackCount);
+            ItemCommonSystem.addOrUpdateBlockMeshComponent(item.getComponent(BlockItemComponent.class), item);
+        } else {
+            Prefab prefab = prefabManager.getPrefab(kind.substring(PipeItemKinds.PREFAB_PREFIX.length()));
+            if (prefab == null) {
+                return;
+            }
+            item = entityManager.create(prefab);
+            ItemComponent itemComponent = item.getComponent(ItemComponent.class);
+            itemComponent.stackCount = (byte) stackCount;
+            item.saveComponent(itemComponent);
+            ItemCommonSystem.addOrUpdateItemMeshComponent(itemComponent, item);
+        }
+
+        PathFollowerComponent pathFollowerComponent = new PathFollowerComponent();
+        pathFollowerComponent.segmentMeta = new SegmentMeta(pipeItems.distances.get(index), pipe, path);
+        pathFollowerComponent.segmentMeta.sign = pipeItems.signs.get(index);
+        PipeFollowingComponent pipeFollowingComponent = new PipeFollowingComponent();
+        pipeFollowingComponent.velocity = pipeItems.velocities.get(index);
+        item.addOrSaveComponent(pathFollowerComponent);
+        LocationComponent locationComponent = item.getComponent(LocationComponent.class);
+        if (locationComponent == null) {
+            locationComponent = new LocationComponent();
+        }
+        locationComponent.setWorldPosition(pathFollowerSystem.vehiclePoint(item));
+        item.addOrSaveComponent(locationComponent);
+        item.addComponent(pipeFollowingComponent);
+    }
+
+    private String typeOf(Class<? extends Component> componentClass) {
+        return entityManager.getComponentLibrary().getMetadata(componentClass).getId().toString();
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.controllers;
+
+import org.joml.Vector3ic;
+import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
+import org.terasology.engine.entitySystem.systems.RegisterMode;
+import org.terasology.engine.entitySystem.systems.RegisterSystem;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.registry.Share;
+import org.terasology.engine.utilities.random.FastRandom;
+import org.terasology.engine.utilities.random.Random;
+import org.terasology.engine.world.WorldProvider;
+
+/**
+ * Source of the random numbers used to route and insert items, seeded from the world seed so runs are reproducible.
+ * <p>
+ * Blocks get generators of their own, derived from the seed and their position, so their decisions do not depend on
+ * the order in which blocks are processed and no generator is shared between threads.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(value = PipeRandomSystem.class)
+public class PipeRandomSystem extends BaseComponentSystem {
+    @In
+    private WorldProvider worldProvider;
+
+    private long seed;
+    private Random random;
+
+    @Override
+    public void initialise() {
+        String worldSeed = worldProvider.getSeed();
+        setSeed(worldSeed != null ? worldSeed.hashCode() : 0);
+    }
+
+    /**
+     * Restarts all sequences from the given seed. Generators handed out before keep their sequence.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.random = new FastRandom(seed);
+    }
+
+    /**
+     * @return the generator for decisions not tied to a block.
+     */
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * @param position the position of the block making the decisions.
+     * @return a new generator whose sequence only depends on the seed and the position.
+     */
+    public Random createRandom(Vector3ic position) {
+        long hash = seed;
+        hash = hash * 31 + position.x();
+        hash = hash * 31 + position.y();
+        hash = hash * 31 + position.z();
+        return new FastRandom(hash);
+    }
+}
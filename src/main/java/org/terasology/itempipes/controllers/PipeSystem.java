@@ -4,13 +4,17 @@ package org.terasology.itempipes.controllers;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.joml.AxisAngle4f;
 import org.joml.Quaternionf;
-import org.joml.Vector3f;
 import org.joml.Vector3i;
 import org.joml.Vector3ic;
 import org.terasology.engine.core.Time;
 import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
 import org.terasology.engine.entitySystem.prefab.Prefab;
 import org.terasology.engine.entitySystem.systems.BaseComponentSystem;
 import org.terasology.engine.entitySystem.systems.RegisterMode;
@@ -21,6 +25,7 @@ import org.terasology.engine.logic.inventory.PickupComponent;
 import org.terasology.engine.logic.location.LocationComponent;
 import org.terasology.engine.math.Rotation;
 import org.terasology.engine.math.Side;
+import org.terasology.engine.math.SideBitFlag;
 import org.terasology.engine.physics.components.RigidBodyComponent;
 import org.terasology.engine.registry.In;
 import org.terasology.engine.registry.Share;
@@ -28,25 +33,41 @@ import org.terasology.engine.world.BlockEntityRegistry;
 import org.terasology.engine.world.WorldProvider;
 import org.terasology.engine.world.block.Block;
 import org.terasology.engine.world.block.BlockComponent;
+import org.terasology.engine.world.block.entity.neighbourUpdate.LargeBlockUpdateFinished;
+import org.terasology.engine.world.block.entity.neighbourUpdate.LargeBlockUpdateStarting;
 import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.gestalt.entitysystem.event.ReceiveEvent;
 import org.terasology.itempipes.blocks.PipeBlockFamily;
+import org.terasology.itempipes.components.PipeComponent;
+import org.terasology.itempipes.components.PipeConnectionComponent;
 import org.terasology.itempipes.components.PipeFollowingComponent;
+import org.terasology.itempipes.components.PipeTransitComponent;
+import org.terasology.itempipes.network.PipeEndpointCache;
+import org.terasology.itempipes.network.PipeEndpoints;
+import org.terasology.module.inventory.systems.InventoryUtils;
 import org.terasology.segmentedpaths.SegmentMeta;
 import org.terasology.segmentedpaths.blocks.PathFamily;
-import org.terasology.segmentedpaths.components.BlockMappingComponent;
 import org.terasology.segmentedpaths.components.PathDescriptorComponent;
 import org.terasology.segmentedpaths.components.PathFollowerComponent;
 import org.terasology.segmentedpaths.controllers.SegmentCacheSystem;
-import org.terasology.segmentedpaths.controllers.SegmentSystem;
 import org.terasology.segmentedpaths.segments.Segment;
 
-import java.util.EnumSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
 @Share(value = PipeSystem.class)
 public class PipeSystem extends BaseComponentSystem {
+    /**
+     * Items inserted at the same pipe entry within this many ms of an identical item join its stack.
+     */
+    private static final long BUNDLE_WINDOW = 250;
+
     @In
     private Time time;
     @In
@@ -54,25 +75,146 @@ public class PipeSystem extends BaseComponentSystem {
     @In
     private BlockEntityRegistry blockEntityRegistry;
     @In
-    private SegmentSystem segmentSystem;
-    @In
     private SegmentCacheSystem segmentCacheSystem;
+    @In
+    private PipeMetrics pipeMetrics;
+    @In
+    private BlockMotionSystem blockMotionSystem;
+
+    private PipeEndpointCache endpointCache;
+    private final Map<EntityRef, PipeEntry> lastEntries = Maps.newHashMap();
+    private final TObjectIntMap<EntityRef> occupancy = new TObjectIntHashMap<>();
+    private final Map<Block, Boolean> connectableBlocks = new ConcurrentHashMap<>();
+    private boolean bundling;
+
+    @Override
+    public void initialise() {
+        endpointCache = new PipeEndpointCache(segmentCacheSystem);
+    }
+
+    @Override
+    public void shutdown() {
+        endpointCache.clear();
+        connectableBlocks.clear();
+        lastEntries.clear();
+        occupancy.clear();
+    }
+
+    @ReceiveEvent(components = {PipeComponent.class})
+    public void onPipeDeactivated(BeforeDeactivateComponent event, EntityRef entityRef) {
+        occupancy.remove(entityRef);
+        lastEntries.remove(entityRef);
+        pipeMetrics.pipeRemoved(entityRef);
+    }
+
+    /**
+     * Counts an item entering the given pipe.
+     */
+    public void occupy(EntityRef pipe) {
+        occupancy.adjustOrPutValue(pipe, 1, 1);
+        pipeMetrics.pipeEntered(pipe, 1);
+    }
+
+    /**
+     * Counts an item leaving the given pipe.
+     */
+    public void vacate(EntityRef pipe) {
+        if (occupancy.adjustOrPutValue(pipe, -1, 0) <= 0) {
+            occupancy.remove(pipe);
+        }
+    }
+
+    /**
+     * @return the number of items currently travelling through the given pipe.
+     */
+    public int getOccupancy(EntityRef pipe) {
+        return occupancy.get(pipe);
+    }
+
+    /**
+     * Counts several items entering (positive delta) or leaving (negative delta) the given pipe at once.
+     */
+    public void changeOccupancy(EntityRef pipe, int delta) {
+        if (delta > 0) {
+            pipeMetrics.pipeEntered(pipe, delta);
+        }
+        if (occupancy.adjustOrPutValue(pipe, delta, Math.max(delta, 0)) <= 0) {
+            occupancy.remove(pipe);
+        }
+    }
+
+    /**
+     * @return whether the given pipe has a capacity and holds as many items as it allows.
+     */
+    public boolean isFull(EntityRef pipe) {
+        return isFull(pipe, 0);
+    }
+
+    /**
+     * @param pending items entering the pipe that are not counted yet.
+     * @return whether the given pipe has a capacity and holds as many items as it allows.
+     */
+    public boolean isFull(EntityRef pipe, int pending) {
+        PipeComponent pipeComponent = pipe.getComponent(PipeComponent.class);
+        return pipeComponent != null && isFull(pipe, pipeComponent.capacity, pending);
+    }
+
+    /**
+     * Only reads the occupancy counts, so it may be called off the main thread while they are not changed.
+     *
+     * @param capacity the capacity of the pipe, or 0 if it is unlimited.
+     * @param pending items entering the pipe that are not counted yet.
+     * @return whether the given pipe holds as many items as the capacity allows.
+     */
+    public boolean isFull(EntityRef pipe, int capacity, int pending) {
+        return capacity > 0 && occupancy.get(pipe) + pending >= capacity;
+    }
 
+    public boolean isBundling() {
+        return bundling;
+    }
+
+    /**
+     * Sets whether items inserted right behind an identical item are merged into its stack, so the whole stack moves
+     * through the pipes as one item. Off by default, as a merged item is destroyed, see {@link #insert}.
+     */
+    public void setBundling(boolean bundling) {
+        this.bundling = bundling;
+        lastEntries.clear();
+    }
+
+    /**
+     * @param prefab a path prefab.
+     * @param rotation the rotation of the block the path belongs to.
+     * @return the cached world sides and length of the path, or null if the prefab does not describe a block path.
+     */
+    public PipeEndpoints getEndpoints(Prefab prefab, Rotation rotation) {
+        return endpointCache.get(prefab, rotation);
+    }
+
+    /**
+     * @param block a block.
+     * @return the rotation the paths of the block are placed with.
+     */
+    public Rotation getRotation(Block block) {
+        BlockFamily family = block.getBlockFamily();
+        if (family instanceof PipeBlockFamily) {
+            return ((PipeBlockFamily) family).getRotation(block);
+        }
+        if (family instanceof PathFamily) {
+            return ((PathFamily) family).getRotationFor(block.getURI());
+        }
+        return Rotation.none();
+    }
 
     public boolean isConnected(Vector3ic location, Side side) {
         Vector3i toTest = new Vector3i(location).add(side.direction());
         if (worldProvider.isBlockRelevant(toTest)) {
             Block block = worldProvider.getBlock(toTest);
             final BlockFamily blockFamily = block.getBlockFamily();
-            EntityRef pipeEntity = blockEntityRegistry.getBlockEntityAt(toTest);
             if (blockFamily instanceof PipeBlockFamily) {
-                PathDescriptorComponent pathDescriptor = pipeEntity.getComponent(PathDescriptorComponent.class);
-                EnumSet<Side> sides = ((PipeBlockFamily) blockFamily).getSides(block.getURI());
-                for (Side s : sides) {
-                    if (s.reverse().equals(side)) {
-                        return true;
-                    }
-                }
+                Set<Side> sides = ((PipeBlockFamily) blockFamily).getSides(block);
+                return sides != null && sides.contains(side.reverse());
             }
         }
         return false;
@@ -81,13 +223,15 @@ public class PipeSystem extends BaseComponentSystem {
 
     public Set<Prefab> findingMatchingPathPrefab(EntityRef pipe, Side side) {
         PathDescriptorComponent pathDescriptor = pipe.getComponent(PathDescriptorComponent.class);
-        Quaternionf rotation = segmentSystem.segmentRotation(pipe);
+        BlockComponent blockComponent = pipe.getComponent(BlockComponent.class);
         Set<Prefab> results = Sets.newHashSet();
+        if (pathDescriptor == null || blockComponent == null) {
+            return results;
+        }
+        Rotation rotation = getRotation(blockComponent.getBlock());
         for (Prefab path : pathDescriptor.descriptors) {
-            BlockMappingComponent blockMappingComponent = path.getComponent(BlockMappingComponent.class);
-            Side s1 = Side.inDirection(rotation.transform(new Vector3f(blockMappingComponent.s1.direction())));
-            Side s2 = Side.inDirection(rotation.transform(new Vector3f(blockMappingComponent.s2.direction())));
-            if (s1.equals(side) || s2.equals(side)) {
+            PipeEndpoints endpoints = endpointCache.get(path, rotation);
+            if (endpoints != null && endpoints.connects(side)) {
                 results.add(path);
             }
         }
@@ -97,10 +241,8 @@ public class PipeSystem extends BaseComponentSystem {
     public Set<Prefab> filterPrefabBySide(Rotation rotation, Set<Prefab> prefabs, Side side) {
         Set<Prefab> result = Sets.newHashSet();
         for (Prefab prefab : prefabs) {
-            BlockMappingComponent blockMappingComponent = prefab.getComponent(BlockMappingComponent.class);
-            Side s1 = rotation.rotate(blockMappingComponent.s1);
-            Side s2 = rotation.rotate(blockMappingComponent.s2);
-            if (s1.equals(side) || s2.equals(side)) {
+            PipeEndpoints endpoints = endpointCache.get(prefab, rotation);
+            if (endpoints != null && endpoints.connects(side)) {
                 result.add(prefab);
             }
 
@@ -114,6 +256,113 @@ public class PipeSystem extends BaseComponentSystem {
     }
 
 
+    /**
+     * Places pipes at many positions at once, e.g. when pasting a structure. The connections of all new pipes are
+     * resolved in one pass, keeping the positions in sets of packed coordinates so the surrounding blocks are looked
+     * at once each. Pipes already next to the new ones are reconnected in the same pass, and all blocks are then set in
+     * a single batch wrapped in a large block update.
+     *
+     * @param family the family of the pipes to place.
+     * @param positions where to place the pipes.
+     */
+    public void placePipes(PipeBlockFamily family, Collection<? extends Vector3ic> positions) {
+        if (positions.isEmpty()) {
+            return;
+        }
+        TLongSet pipes = new TLongHashSet(positions.size());
+        TLongSet resolved = new TLongHashSet();
+        TLongSet connectable = new TLongHashSet();
+        for (Vector3ic position : positions) {
+            pipes.add(pack(position));
+        }
+        Map<Vector3ic, Block> blocks = Maps.newHashMapWithExpectedSize(positions.size());
+        List<Vector3ic> neighborPipes = new ArrayList<>();
+        Vector3i neighbor = new Vector3i();
+        for (Vector3ic position : positions) {
+            byte connections = 0;
+            for (Side side : Side.values()) {
+                neighbor.set(position).add(side.direction());
+                long key = pack(neighbor);
+                if (!pipes.contains(key)) {
+                    if (resolved.add(key) && worldProvider.isBlockRelevant(neighbor)) {
+                        if (isConnectable(neighbor)) {
+                            connectable.add(key);
+                        }
+                        if (worldProvider.getBlock(neighbor).getBlockFamily() instanceof PipeBlockFamily) {
+                            neighborPipes.add(new Vector3i(neighbor));
+                        }
+                    }
+                    if (!connectable.contains(key)) {
+                        continue;
+                    }
+                }
+                connections |= SideBitFlag.getSide(side);
+            }
+            blocks.put(new Vector3i(position), family.getBlockForConnections(connections));
+        }
+
+        // existing pipes around the new ones connect to them, and possibly lost a connection to a replaced block
+        for (Vector3ic position : neighborPipes) {
+            PipeBlockFamily neighborFamily = (PipeBlockFamily) worldProvider.getBlock(position).getBlockFamily();
+            byte connections = 0;
+            for (Side side : Side.values()) {
+                neighbor.set(position).add(side.direction());
+                if (pipes.contains(pack(neighbor)) || worldProvider.isBlockRelevant(neighbor) && isConnectable(neighbor)) {
+                    connections |= SideBitFlag.getSide(side);
+                }
+            }
+            blocks.put(position, neighborFamily.getBlockForConnections(connections));
+        }
+
+        EntityRef worldEntity = worldProvider.getWorldEntity();
+        worldEntity.send(new LargeBlockUpdateStarting());
+        try {
+            worldProvider.setBlocks(blocks);
+        } finally {
+            worldEntity.send(new LargeBlockUpdateFinished());
+        }
+    }
+
+    /**
+     * Packs a block position with coordinates of up to 21 bits each into one key.
+     */
+    private static long pack(Vector3ic position) {
+        return ((long) position.x() & 0x1FFFFF) << 42 | ((long) position.y() & 0x1FFFFF) << 21 | position.z() & 0x1FFFFF;
+    }
+
+    /**
+     * Whether pipes connect to the block at the given position. Blocks with an entity are decided by the components of
+     * the entity, so components added at runtime count; other blocks by the prefab of the block.
+     *
+     * @param position the position of a loaded block.
+     * @return true if the block is a pipe or accepts items from pipes.
+     */
+    public boolean isConnectable(Vector3ic position) {
+        EntityRef blockEntity = blockEntityRegistry.getExistingBlockEntityAt(position);
+        if (blockEntity.exists()) {
+            return blockEntity.hasComponent(PipeComponent.class) || blockEntity.hasComponent(PipeConnectionComponent.class);
+        }
+        return isConnectable(worldProvider.getBlock(position));
+    }
+
+    /**
+     * Whether pipes connect to the given block, decided by the components of the block's prefab. The answer is kept
+     * per block until the system shuts down along with the prefabs.
+     *
+     * @param block any block.
+     * @return true if the block is a pipe or accepts items from pipes.
+     */
+    public boolean isConnectable(Block block) {
+        return connectableBlocks.computeIfAbsent(block, key -> {
+            if (key.getBlockFamily() instanceof PipeBlockFamily) {
+                return true;
+            }
+            Optional<Prefab> prefab = key.getPrefab();
+            return prefab.isPresent()
+                && (prefab.get().hasComponent(PipeComponent.class) || prefab.get().hasComponent(PipeConnectionComponent.class));
+        });
+    }
+
     public Map<Side, EntityRef> findPipes(Vector3ic location) {
         Map<Side, EntityRef> pipes = Maps.newHashMap();
         for (Side side : Side.values()) {
@@ -131,6 +380,7 @@ public class PipeSystem extends BaseComponentSystem {
     }
 
     public void dropItem(EntityRef actor) {
+        pipeMetrics.itemDropped();
         ItemComponent itemComponent = actor.getComponent(ItemComponent.class);
 
         Prefab prefab = itemComponent.pickupPrefab;
@@ -143,41 +393,80 @@ public class PipeSystem extends BaseComponentSystem {
         actor.addComponent(lifespanComponent);
         actor.addComponent(pickupComponent);
 
+        removeFromPipe(actor);
+    }
+
+    /**
+     * Strips the pipe transport components from an item that was taken out of a pipe.
+     */
+    public void removeFromPipe(EntityRef actor) {
         actor.removeComponent(PipeFollowingComponent.class);
         actor.removeComponent(PathFollowerComponent.class);
+        actor.removeComponent(PipeTransitComponent.class);
     }
 
-
+    /**
+     * Inserts an item into a pipe, see {@link #insert}.
+     *
+     * @return true if the item entered the pipe or was merged into an item in it, in which case the actor no longer
+     *     exists.
+     */
     public boolean insertIntoPipe(EntityRef actor, EntityRef pipe, Side side, Prefab prefab, float velocity) {
+        return insert(actor, pipe, side, prefab, velocity) != InsertResult.REJECTED;
+    }
+
+    /**
+     * Inserts an item into a pipe at one end of the given path. With bundling enabled, an item inserted right behind
+     * an identical item is merged into its stack instead, and destroyed if all of it fits.
+     *
+     * @param actor the item to insert.
+     * @param pipe the pipe to insert the item into.
+     * @param side the side of the pipe the item enters through.
+     * @param prefab the path the item follows through the pipe.
+     * @param velocity the initial speed of the item.
+     * @return whether the item entered the pipe, was merged and destroyed, or was refused and left as it is.
+     */
+    public InsertResult insert(EntityRef actor, EntityRef pipe, Side side, Prefab prefab, float velocity) {
         if (actor.hasComponent(PipeFollowingComponent.class)) {
-            return false;
+            return InsertResult.REJECTED;
         }
         if (!actor.hasComponent(ItemComponent.class)) {
-            return false;
+            return InsertResult.REJECTED;
         }
 
         BlockComponent blockComponent = pipe.getComponent(BlockComponent.class);
         if (blockComponent == null) {
-            return false;
+            return InsertResult.REJECTED;
         }
         Block block = blockComponent.getBlock();
         BlockFamily family = block.getBlockFamily();
         if (family instanceof PathFamily) {
-            BlockMappingComponent blockMappingComponent = prefab.getComponent(BlockMappingComponent.class);
-            if (blockMappingComponent == null) {
-                return false;
+            PipeEndpoints endpoints = endpointCache.get(prefab, getRotation(block));
+            if (endpoints == null) {
+                return InsertResult.REJECTED;
+            }
+            int sign;
+            if (endpoints.getStartSide() == side) {
+                sign = 1;
+            } else if (endpoints.getEndSide() == side) {
+                sign = -1;
+            } else {
+                return InsertResult.REJECTED;
+            }
+            if (bundling && bundle(actor, pipe, prefab, sign)) {
+                pipeMetrics.itemInserted();
+                return InsertResult.MERGED;
+            }
+            if (isFull(pipe)) {
+                return InsertResult.REJECTED;
             }
-            Rotation rotation = ((PathFamily) family).getRotationFor(block.getURI());
             PathFollowerComponent pathFollowerComponent = new PathFollowerComponent();
-            if (rotation.rotate(blockMappingComponent.s1).equals(side)) {
+            if (sign == 1) {
                 pathFollowerComponent.segmentMeta = new SegmentMeta(0, pipe, prefab);
                 pathFollowerComponent.segmentMeta.sign = 1;
-            } else if (rotation.rotate(blockMappingComponent.s2).equals(side)) {
-                Segment segment = segmentCacheSystem.getSegment(prefab);
-                pathFollowerComponent.segmentMeta = new SegmentMeta(segment.maxDistance(), pipe, prefab);
-                pathFollowerComponent.segmentMeta.sign = -1;
             } else {
-                return false;
+                pathFollowerComponent.segmentMeta = new SegmentMeta(endpoints.getMaxDistance(), pipe, prefab);
+                pathFollowerComponent.segmentMeta.sign = -1;
             }
             PipeFollowingComponent pipeFollowingComponent = new PipeFollowingComponent();
             pipeFollowingComponent.velocity = Math.abs(velocity);
@@ -192,8 +481,83 @@ public class PipeSystem extends BaseComponentSystem {
             actor.removeComponent(PickupComponent.class);
             actor.removeComponent(RigidBodyComponent.class);
             actor.removeComponent(LifespanComponent.class);
-            return true;
+            if (bundling) {
+                lastEntries.put(pipe, new PipeEntry(actor, prefab, sign, time.getGameTimeInMs()));
+            }
+            pipeMetrics.itemInserted();
+            return InsertResult.INSERTED;
+        }
+        return InsertResult.REJECTED;
+    }
+
+    /**
+     * Moves as much of the actor's stack as fits into the item last inserted at the same pipe entry, if that item is
+     * identical and still close to the entry.
+     *
+     * @return true if the whole stack was merged and the actor destroyed.
+     */
+    private boolean bundle(EntityRef actor, EntityRef pipe, Prefab prefab, int sign) {
+        PipeEntry entry = lastEntries.get(pipe);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.prefab != prefab || entry.sign != sign || time.getGameTimeInMs() - entry.time > BUNDLE_WINDOW) {
+            lastEntries.remove(pipe);
+            return false;
+        }
+        // the batched transport only writes the position of the item back on request
+        blockMotionSystem.synchronize(entry.item);
+        PathFollowerComponent pathFollowerComponent = entry.item.getComponent(PathFollowerComponent.class);
+        if (pathFollowerComponent == null || !pipe.equals(pathFollowerComponent.segmentMeta.association)
+            || !InventoryUtils.isSameItem(entry.item, actor)) {
+            return false;
+        }
+        ItemComponent into = entry.item.getComponent(ItemComponent.class);
+        ItemComponent from = actor.getComponent(ItemComponent.class);
+        int moved = Math.min(from.stackCount, into.maxStackSize - into.stackCount);
+        if (moved <= 0) {
+            return false;
+        }
+        into.stackCount += moved;
+        from.stackCount -= moved;
+        entry.item.saveComponent(into);
+        if (from.stackCount > 0) {
+            actor.saveComponent(from);
+            return false;
+        }
+        actor.destroy();
+        return true;
+    }
+
+    /**
+     * The outcome of inserting an item into a pipe.
+     */
+    public enum InsertResult {
+        /**
+         * The item did not enter the pipe and is left as it is.
+         */
+        REJECTED,
+        /**
+         * The item entered the pipe.
+         */
+        INSERTED,
+        /**
+         * The whole stack of the item was merged into an identical item just inserted, and the item was destroyed.
+         */
+        MERGED
+    }
+
+    private static final class PipeEntry {
+        private final EntityRef item;
+        private final Prefab prefab;
+        private final int sign;
+        private final long time;
+
+        private PipeEntry(EntityRef item, Prefab prefab, int sign, long time) {
+            this.item = item;
+            this.prefab = prefab;
+            this.sign = sign;
+            this.time = time;
         }
-        return false;
     }
 }
@@ -6,6 +6,12 @@ import org.terasology.engine.entitySystem.entity.EntityRef;
 import org.terasology.engine.entitySystem.event.AbstractConsumableEvent;
 import org.terasology.segmentedpaths.SegmentMeta;
 
+/**
+ * Sent to the block behind the end of a pipe when an item reaches it, with the item still in the pipe.
+ * <p>
+ * A handler taking the item removes it from the pipe and consumes the event. If the event is not consumed, an item
+ * heading into an inventory waits at the end of the pipe until the inventory changes, and any other item is dropped.
+ */
 public class PipeInsertEvent extends AbstractConsumableEvent {
     private SegmentMeta segmentMeta;
     private EntityRef actor;
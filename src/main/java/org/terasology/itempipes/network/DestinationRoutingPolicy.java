@@ -0,0 +1,51 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.itempipes.controllers.PipeNetworkSystem;
+
+/**
+ * Sends items along the shortest path to the nearest inventory of the network that is not known to be full. Leaves
+ * the decision to the {@code PipeMappingEvent} handlers if no such inventory is reachable.
+ */
+public class DestinationRoutingPolicy implements PipeRoutingPolicy {
+    private final PipeNetworkSystem pipeNetworkSystem;
+    private final PipeNode owner;
+    private PipeNetwork network;
+    private PipeRouteTable.PipeRoute[] routes;
+
+    /**
+     * @param pipeNetworkSystem resolves the network and its route table.
+     * @param owner the block at whose segment end the junction lies.
+     */
+    public DestinationRoutingPolicy(PipeNetworkSystem pipeNetworkSystem, PipeNode owner) {
+        this.pipeNetworkSystem = pipeNetworkSystem;
+        this.owner = owner;
+    }
+
+    /**
+     * Resolving the network, building its route table and looking up full inventories touch state of the main thread.
+     */
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+
+    @Override
+    public PipeTransition route(PipeJunction junction, EntityRef item) {
+        if (network == null || network.isDissolved()) {
+            if (!owner.isValid()) {
+                return null;
+            }
+            network = pipeNetworkSystem.getNetwork(owner);
+            routes = network.getRouteTable().getRoutes(junction);
+        }
+        for (PipeRouteTable.PipeRoute route : routes) {
+            if (!pipeNetworkSystem.isSinkFull(route.getSink())) {
+                return route.getTransition();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.Lists;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.math.Side;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends items out of the first side whose filter matches them, and items no filter matches out of the first side
+ * without a filter. Leaves the decision to the {@code PipeMappingEvent} handlers if neither exists.
+ */
+public class FilterRoutingPolicy implements PipeRoutingPolicy {
+    private final PipeItemKinds kinds;
+    private final PipeTransition[] filtered;
+    private final PipeItemMatcher[] matchers;
+    private final PipeTransition unfiltered;
+
+    /**
+     * @param junction the junction to route items at.
+     * @param filters the matcher per output side, sides without one take the items no filter matches.
+     * @param kinds the kinds the matchers were compiled against.
+     */
+    public FilterRoutingPolicy(PipeJunction junction, Map<Side, PipeItemMatcher> filters, PipeItemKinds kinds) {
+        this.kinds = kinds;
+        List<PipeTransition> filteredTransitions = Lists.newArrayList();
+        List<PipeItemMatcher> sideMatchers = Lists.newArrayList();
+        PipeTransition fallback = null;
+        for (PipeTransition transition : junction.getSideTransitions()) {
+            PipeItemMatcher matcher = filters.get(transition.getOutputSide());
+            if (matcher != null) {
+                filteredTransitions.add(transition);
+                sideMatchers.add(matcher);
+            } else if (fallback == null) {
+                fallback = transition;
+            }
+        }
+        this.filtered = filteredTransitions.toArray(new PipeTransition[0]);
+        this.matchers = sideMatchers.toArray(new PipeItemMatcher[0]);
+        this.unfiltered = fallback;
+    }
+
+    @Override
+    public PipeTransition route(PipeJunction junction, EntityRef item) {
+        return route(junction, item, PipeItemKinds.UNKNOWN);
+    }
+
+    @Override
+    public PipeTransition route(PipeJunction junction, EntityRef item, int kind) {
+        int itemKind = kind == PipeItemKinds.UNKNOWN && item.exists() ? kinds.getKind(item) : kind;
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].matches(itemKind)) {
+                return filtered[i];
+            }
+        }
+        return unfiltered;
+    }
+}
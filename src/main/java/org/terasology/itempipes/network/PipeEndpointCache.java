@@ -0,0 +1,58 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.Maps;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.math.Rotation;
+import org.terasology.segmentedpaths.components.BlockMappingComponent;
+import org.terasology.segmentedpaths.controllers.SegmentCacheSystem;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lazily filled table of {@link PipeEndpoints} by path prefab and block rotation, so the rotated ends of a path are
+ * computed once instead of on every lookup.
+ */
+public final class PipeEndpointCache {
+    private static final int ROTATIONS = 64;
+
+    private final SegmentCacheSystem segmentCacheSystem;
+    private final ConcurrentMap<Prefab, PipeEndpoints[]> endpoints = Maps.newConcurrentMap();
+
+    public PipeEndpointCache(SegmentCacheSystem segmentCacheSystem) {
+        this.segmentCacheSystem = segmentCacheSystem;
+    }
+
+    /**
+     * @param prefab a path prefab.
+     * @param rotation the rotation of the block the path belongs to.
+     * @return the rotated ends of the path, or null if the prefab does not describe a block path.
+     */
+    public PipeEndpoints get(Prefab prefab, Rotation rotation) {
+        PipeEndpoints[] byRotation = endpoints.get(prefab);
+        if (byRotation == null) {
+            byRotation = new PipeEndpoints[ROTATIONS];
+            PipeEndpoints[] previous = endpoints.putIfAbsent(prefab, byRotation);
+            if (previous != null) {
+                byRotation = previous;
+            }
+        }
+        int index = rotation.getYaw().ordinal() << 4 | rotation.getPitch().ordinal() << 2 | rotation.getRoll().ordinal();
+        PipeEndpoints result = byRotation[index];
+        if (result == null) {
+            BlockMappingComponent blockMappingComponent = prefab.getComponent(BlockMappingComponent.class);
+            if (blockMappingComponent == null) {
+                return null;
+            }
+            result = new PipeEndpoints(rotation.rotate(blockMappingComponent.s1), rotation.rotate(blockMappingComponent.s2),
+                segmentCacheSystem.getSegment(prefab).maxDistance());
+            byRotation[index] = result;
+        }
+        return result;
+    }
+
+    public void clear() {
+        endpoints.clear();
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.math.Side;
+
+/**
+ * The world sides a path prefab starts and ends on for one block rotation, together with the length of the path.
+ */
+public final class PipeEndpoints {
+    private final Side startSide;
+    private final Side endSide;
+    private final float maxDistance;
+
+    public PipeEndpoints(Side startSide, Side endSide, float maxDistance) {
+        this.startSide = startSide;
+        this.endSide = endSide;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * @return the side the start of the path (distance 0) lies on.
+     */
+    public Side getStartSide() {
+        return startSide;
+    }
+
+    /**
+     * @return the side the end of the path (the max distance) lies on.
+     */
+    public Side getEndSide() {
+        return endSide;
+    }
+
+    public float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return whether either end of the path lies on the given side.
+     */
+    public boolean connects(Side side) {
+        return startSide == side || endSide == side;
+    }
+}
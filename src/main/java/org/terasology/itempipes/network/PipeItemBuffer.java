@@ -0,0 +1,241 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.protobuf.EntityData;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays store for the transport state of items travelling through pipes.
+ * <p>
+ * Items are addressed by a dense index; removing an item moves the last item into the freed slot. The state of an item
+ * is valid at its anchor time. Every item also has an event time, the time at which it next has to be looked at, and
+ * the buffer keeps a binary heap over those so the next due item is found in constant time.
+ * <p>
+ * An item can be parked: its entity is replaced by a serialized record and the slot holds {@link EntityRef#NULL} until
+ * the item is unparked again.
+ */
+public final class PipeItemBuffer {
+    private static final int INITIAL_CAPACITY = 64;
+
+    public EntityRef[] items = new EntityRef[INITIAL_CAPACITY];
+    public PipeNode[] nodes = new PipeNode[INITIAL_CAPACITY];
+    public Prefab[] prefabs = new Prefab[INITIAL_CAPACITY];
+    public float[] distance = new float[INITIAL_CAPACITY];
+    public float[] maxDistance = new float[INITIAL_CAPACITY];
+    public float[] velocity = new float[INITIAL_CAPACITY];
+    public byte[] sign = new byte[INITIAL_CAPACITY];
+    public double[] anchorTime = new double[INITIAL_CAPACITY];
+    public double[] eventTime = new double[INITIAL_CAPACITY];
+    public EntityData.Entity[] records = new EntityData.Entity[INITIAL_CAPACITY];
+    /**
+     * The kind of each item as interned by {@link PipeItemKinds}, kept here so parked items can still be routed.
+     */
+    public int[] kinds = new int[INITIAL_CAPACITY];
+
+    private int[] heap = new int[INITIAL_CAPACITY];
+    private int[] heapIndex = new int[INITIAL_CAPACITY];
+
+    private int size;
+    private final TObjectIntMap<EntityRef> indices = new TObjectIntHashMap<>(INITIAL_CAPACITY, 0.5f, -1);
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(EntityRef item) {
+        return indices.containsKey(item);
+    }
+
+    /**
+     * @return the index of the item, or -1 if it is not in the buffer.
+     */
+    public int indexOf(EntityRef item) {
+        return indices.get(item);
+    }
+
+    /**
+     * Adds an item with its state valid at the given time. The item is not due until {@link #schedule} is called.
+     */
+    public int add(EntityRef item, PipeNode node, Prefab prefab, float itemDistance, float itemMaxDistance,
+                   float itemVelocity, int itemSign, double time) {
+        if (size == items.length) {
+            grow();
+        }
+        int index = size++;
+        items[index] = item;
+        nodes[index] = node;
+        prefabs[index] = prefab;
+        distance[index] = itemDistance;
+        maxDistance[index] = itemMaxDistance;
+        velocity[index] = itemVelocity;
+        sign[index] = (byte) itemSign;
+        anchorTime[index] = time;
+        eventTime[index] = Double.POSITIVE_INFINITY;
+        records[index] = null;
+        kinds[index] = PipeItemKinds.UNKNOWN;
+        heap[index] = index;
+        heapIndex[index] = index;
+        indices.put(item, index);
+        return index;
+    }
+
+    /**
+     * Replaces the entity of the item at the given index by its serialized form.
+     */
+    public void park(int index, EntityData.Entity record) {
+        indices.remove(items[index]);
+        items[index] = EntityRef.NULL;
+        records[index] = record;
+    }
+
+    /**
+     * Gives a parked item its entity back.
+     */
+    public void unpark(int index, EntityRef item) {
+        records[index] = null;
+        items[index] = item;
+        indices.put(item, index);
+    }
+
+    public boolean isParked(int index) {
+        return records[index] != null;
+    }
+
+    /**
+     * Sets the time at which the item at the given index is next due.
+     */
+    public void schedule(int index, double time) {
+        double previous = eventTime[index];
+        eventTime[index] = time;
+        if (time < previous) {
+            siftUp(heapIndex[index]);
+        } else {
+            siftDown(heapIndex[index], size);
+        }
+    }
+
+    /**
+     * @return the index of the item with the earliest event time, or -1 if the buffer is empty.
+     */
+    public int peek() {
+        return size > 0 ? heap[0] : -1;
+    }
+
+    /**
+     * @return the earliest event time of all items, or positive infinity if the buffer is empty.
+     */
+    public double getNextEventTime() {
+        return size > 0 ? eventTime[heap[0]] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Removes the item at the given index by moving the last item into its slot.
+     */
+    public void remove(int index) {
+        indices.remove(items[index]);
+        int last = size - 1;
+
+        int position = heapIndex[index];
+        int tail = heap[last];
+        heap[position] = tail;
+        heapIndex[tail] = position;
+        if (position < last) {
+            siftDown(position, last);
+            siftUp(heapIndex[tail]);
+        }
+
+        size = last;
+        if (index != last) {
+            heap[heapIndex[last]] = index;
+            heapIndex[index] = heapIndex[last];
+            items[index] = items[last];
+            nodes[index] = nodes[last];
+            prefabs[index] = prefabs[last];
+            distance[index] = distance[last];
+            maxDistance[index] = maxDistance[last];
+            velocity[index] = velocity[last];
+            sign[index] = sign[last];
+            anchorTime[index] = anchorTime[last];
+            eventTime[index] = eventTime[last];
+            records[index] = records[last];
+            kinds[index] = kinds[last];
+            if (records[index] == null) {
+                indices.put(items[index], index);
+            }
+        }
+        items[last] = null;
+        nodes[last] = null;
+        prefabs[last] = null;
+        records[last] = null;
+    }
+
+    public void clear() {
+        Arrays.fill(items, 0, size, null);
+        Arrays.fill(nodes, 0, size, null);
+        Arrays.fill(prefabs, 0, size, null);
+        Arrays.fill(records, 0, size, null);
+        indices.clear();
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = items.length * 2;
+        items = Arrays.copyOf(items, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+        prefabs = Arrays.copyOf(prefabs, capacity);
+        distance = Arrays.copyOf(distance, capacity);
+        maxDistance = Arrays.copyOf(maxDistance, capacity);
+        velocity = Arrays.copyOf(velocity, capacity);
+        sign = Arrays.copyOf(sign, capacity);
+        anchorTime = Arrays.copyOf(anchorTime, capacity);
+        eventTime = Arrays.copyOf(eventTime, capacity);
+        records = Arrays.copyOf(records, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+        heapIndex = Arrays.copyOf(heapIndex, capacity);
+    }
+
+    private void siftUp(int position) {
+        int current = position;
+        while (current > 0) {
+            int parent = (current - 1) / 2;
+            if (eventTime[heap[current]] >= eventTime[heap[parent]]) {
+                break;
+            }
+            swap(current, parent);
+            current = parent;
+        }
+    }
+
+    private void siftDown(int position, int heapSize) {
+        int current = position;
+        while (true) {
+            int child = 2 * current + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && eventTime[heap[child + 1]] < eventTime[heap[child]]) {
+                child++;
+            }
+            if (eventTime[heap[child]] >= eventTime[heap[current]]) {
+                break;
+            }
+            swap(current, child);
+            current = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int item = heap[a];
+        heap[a] = heap[b];
+        heap[b] = item;
+        heapIndex[heap[a]] = a;
+        heapIndex[heap[b]] = b;
+    }
+}
@@ -0,0 +1,74 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.logic.inventory.ItemComponent;
+import org.terasology.engine.world.block.items.BlockItemComponent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Interns the kinds of items travelling through pipes to small dense ids, so routing can look items up in bit sets
+ * instead of comparing names.
+ * <p>
+ * The kind of an item is {@code "block:"} followed by the block family for block items and {@code "prefab:"} followed
+ * by the item prefab otherwise. Ids are never reused; lookups are safe from any thread.
+ */
+public final class PipeItemKinds {
+    public static final int UNKNOWN = -1;
+    public static final String PREFAB_PREFIX = "prefab:";
+    public static final String BLOCK_PREFIX = "block:";
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return the kind name of the item, or null if it is not an item.
+     */
+    public static String nameOf(EntityRef item) {
+        if (!item.hasComponent(ItemComponent.class)) {
+            return null;
+        }
+        BlockItemComponent blockItem = item.getComponent(BlockItemComponent.class);
+        if (blockItem != null && blockItem.blockFamily != null) {
+            return BLOCK_PREFIX + blockItem.blockFamily.getURI();
+        }
+        return item.getParentPrefab() != null ? PREFAB_PREFIX + item.getParentPrefab().getUrn() : null;
+    }
+
+    /**
+     * @return the id of the item's kind, or {@link #UNKNOWN} if it is not an item.
+     */
+    public int getKind(EntityRef item) {
+        String name = nameOf(item);
+        return name != null ? intern(name) : UNKNOWN;
+    }
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            return ids.computeIfAbsent(name, key -> {
+                names.add(key);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * @return the name of the kind with the given id.
+     */
+    public String getName(int kind) {
+        return names.get(kind);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.Sets;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides whether items belong to a set of patterns, by item kind id.
+ * <p>
+ * A pattern is an item prefab such as {@code "CoreAssets:pickaxe"}, a block family prefixed with {@code "block:"}, or
+ * a module prefixed with {@code "module:"}, matching every item and block item the module defines. The patterns are
+ * compared with the name of a kind once, the first time an item of the kind is matched; after that a kind is looked up
+ * in a bit set. Not thread safe: each matcher belongs to one junction and is only used by whoever steps its network.
+ */
+public final class PipeItemMatcher {
+    private static final String MODULE_PREFIX = "module:";
+
+    private final PipeItemKinds kinds;
+    private final Set<String> names = Sets.newHashSet();
+    private final Set<String> modules = Sets.newHashSet();
+    private final BitSet resolved = new BitSet();
+    private final BitSet matched = new BitSet();
+
+    /**
+     * @param kinds the kinds the ids passed to {@link #matches} are interned with.
+     * @param patterns the patterns, in any letter case.
+     */
+    public PipeItemMatcher(PipeItemKinds kinds, Collection<String> patterns) {
+        this.kinds = kinds;
+        for (String pattern : patterns) {
+            String normalized = pattern.trim().toLowerCase(Locale.ROOT);
+            if (normalized.startsWith(MODULE_PREFIX)) {
+                modules.add(normalized.substring(MODULE_PREFIX.length()));
+            } else if (normalized.startsWith(PipeItemKinds.BLOCK_PREFIX)) {
+                names.add(normalized);
+            } else {
+                names.add(PipeItemKinds.PREFAB_PREFIX + normalized);
+            }
+        }
+    }
+
+    /**
+     * @param kind a kind id, or {@link PipeItemKinds#UNKNOWN}.
+     * @return whether items of the kind match any of the patterns.
+     */
+    public boolean matches(int kind) {
+        if (kind < 0) {
+            return false;
+        }
+        if (!resolved.get(kind)) {
+            matched.set(kind, test(kinds.getName(kind).toLowerCase(Locale.ROOT)));
+            resolved.set(kind);
+        }
+        return matched.get(kind);
+    }
+
+    private boolean test(String name) {
+        if (names.contains(name)) {
+            return true;
+        }
+        if (modules.isEmpty()) {
+            return false;
+        }
+        int start = name.indexOf(':') + 1;
+        int end = name.indexOf(':', start);
+        return end > start && modules.contains(name.substring(start, end));
+    }
+}
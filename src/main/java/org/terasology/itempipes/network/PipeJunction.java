@@ -0,0 +1,105 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.ImmutableSet;
+import org.joml.Vector3ic;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.math.Side;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All candidate transitions reachable from one end of a pipe segment.
+ */
+public final class PipeJunction {
+    private final Vector3ic neighbor;
+    private final EntityRef neighborEntity;
+    private final PipeTransition[] transitions;
+    private final Set<Side> outputSides;
+    private final Map<Side, PipeTransition> bySide = new EnumMap<>(Side.class);
+    private final PipeTransition[] sideTransitions;
+    private final boolean unloaded;
+    private PipeRoutingPolicy routingPolicy;
+
+    public PipeJunction(Vector3ic neighbor, EntityRef neighborEntity, List<PipeTransition> transitions) {
+        this(neighbor, neighborEntity, transitions, false);
+    }
+
+    /**
+     * @param unloaded true if the neighbouring block was not loaded when the junction was built, in which case
+     *     nothing is known about where this end of the segment leads.
+     */
+    public PipeJunction(Vector3ic neighbor, EntityRef neighborEntity, List<PipeTransition> transitions, boolean unloaded) {
+        this.neighbor = neighbor;
+        this.unloaded = unloaded;
+        this.neighborEntity = neighborEntity;
+        this.transitions = transitions.toArray(new PipeTransition[0]);
+        ImmutableSet.Builder<Side> sides = ImmutableSet.builder();
+        for (PipeTransition transition : this.transitions) {
+            if (!bySide.containsKey(transition.getOutputSide())) {
+                bySide.put(transition.getOutputSide(), transition);
+                sides.add(transition.getOutputSide());
+            }
+        }
+        this.outputSides = sides.build();
+        this.sideTransitions = bySide.values().toArray(new PipeTransition[0]);
+    }
+
+    /**
+     * @return the position of the block adjacent to this end of the segment.
+     */
+    public Vector3ic getNeighbor() {
+        return neighbor;
+    }
+
+    public EntityRef getNeighborEntity() {
+        return neighborEntity;
+    }
+
+    /**
+     * @return whether the neighbouring block is in a chunk that is not loaded. Items reaching such a junction have to
+     *     wait until it is loaded instead of leaving the pipe network.
+     */
+    public boolean isUnloaded() {
+        return unloaded;
+    }
+
+    public int size() {
+        return transitions.length;
+    }
+
+    public PipeTransition getTransition(int index) {
+        return transitions[index];
+    }
+
+    public PipeTransition getTransition(Side outputSide) {
+        return outputSide == null ? null : bySide.get(outputSide);
+    }
+
+    public Set<Side> getOutputSides() {
+        return outputSides;
+    }
+
+    /**
+     * @return the first transition for each output side, i.e. the transitions {@link #getTransition(Side)} resolves to.
+     */
+    public PipeTransition[] getSideTransitions() {
+        return sideTransitions;
+    }
+
+    /**
+     * @return the policy picking a transition for passing items, or null if the {@code PipeMappingEvent} handlers
+     *     of the neighbouring block decide.
+     */
+    public PipeRoutingPolicy getRoutingPolicy() {
+        return routingPolicy;
+    }
+
+    public void setRoutingPolicy(PipeRoutingPolicy routingPolicy) {
+        this.routingPolicy = routingPolicy;
+    }
+}
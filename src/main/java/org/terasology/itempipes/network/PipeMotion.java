@@ -0,0 +1,65 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+/**
+ * Closed form of the item motion in a pipe: the velocity drops by the pipe friction per second and never falls below
+ * {@link #MIN_VELOCITY}.
+ */
+public final class PipeMotion {
+    public static final float MIN_VELOCITY = .5f;
+
+    private PipeMotion() {
+    }
+
+    /**
+     * @param velocity the velocity at time 0.
+     * @param friction the friction of the pipe.
+     * @param time the elapsed time in seconds.
+     * @return the velocity after the given time.
+     */
+    public static float velocityAt(float velocity, float friction, float time) {
+        float v0 = Math.max(velocity, MIN_VELOCITY);
+        return Math.max(v0 - friction * time, MIN_VELOCITY);
+    }
+
+    /**
+     * @param velocity the velocity at time 0.
+     * @param friction the friction of the pipe.
+     * @param time the elapsed time in seconds.
+     * @return the distance travelled in the given time.
+     */
+    public static float distanceAt(float velocity, float friction, float time) {
+        double v0 = Math.max(velocity, MIN_VELOCITY);
+        if (friction > 0) {
+            double tMin = (v0 - MIN_VELOCITY) / friction;
+            if (time > tMin) {
+                return (float) (v0 * tMin - friction * tMin * tMin / 2 + MIN_VELOCITY * (time - tMin));
+            }
+        }
+        return (float) (v0 * time - friction * (double) time * time / 2);
+    }
+
+    /**
+     * @param velocity the velocity at time 0.
+     * @param friction the friction of the pipe.
+     * @param distance the distance to travel.
+     * @return the time in seconds needed to travel the given distance.
+     */
+    public static float timeToTravel(float velocity, float friction, float distance) {
+        if (distance <= 0) {
+            return 0;
+        }
+        double v0 = Math.max(velocity, MIN_VELOCITY);
+        if (friction == 0) {
+            return (float) (distance / v0);
+        }
+        if (friction > 0) {
+            double dMin = (v0 * v0 - MIN_VELOCITY * MIN_VELOCITY) / (2 * friction);
+            if (distance > dMin) {
+                return (float) ((v0 - MIN_VELOCITY) / friction + (distance - dMin) / MIN_VELOCITY);
+            }
+        }
+        return (float) ((v0 - Math.sqrt(Math.max(v0 * v0 - 2 * friction * distance, 0))) / friction);
+    }
+}
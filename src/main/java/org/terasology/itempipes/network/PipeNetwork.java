@@ -0,0 +1,107 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joml.Vector3ic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A connected set of pipe blocks. Items never move between networks, so each network is scheduled on its own: it
+ * sleeps while it carries no items and is only looked at when the event of one of its items is due.
+ */
+public final class PipeNetwork {
+    private final int id;
+    private final List<PipeNode> members = Lists.newArrayList();
+    private final Map<Vector3ic, PipeNode> membersByPosition = Maps.newHashMap();
+    private final PipeItemBuffer items = new PipeItemBuffer();
+    private PipeRouteTable routeTable;
+
+    private boolean dissolved;
+    private boolean awake;
+
+    public PipeNetwork(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void addMember(PipeNode node) {
+        members.add(node);
+        membersByPosition.put(node.getPosition(), node);
+        node.setNetwork(this);
+    }
+
+    /**
+     * Looks up a block of this network without going through the graph, which is safe while the network is stepped
+     * off the main thread.
+     *
+     * @return the member at the given position, or null if the block is not part of this network.
+     */
+    public PipeNode getMember(Vector3ic position) {
+        return membersByPosition.get(position);
+    }
+
+    public List<PipeNode> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * @return the transport state of the items currently travelling through this network.
+     */
+    public PipeItemBuffer getItems() {
+        return items;
+    }
+
+    /**
+     * @return the shortest paths from the junctions of this network to the inventories it delivers to, computed on
+     *     first use on the main thread, as it looks up components of the blocks next to the network.
+     */
+    public PipeRouteTable getRouteTable() {
+        if (routeTable == null) {
+            routeTable = PipeRouteTable.build(members);
+        }
+        return routeTable;
+    }
+
+    /**
+     * Detaches this network from its blocks after the topology changed. The items still held by it have to be moved
+     * to the networks that replace it.
+     */
+    public void dissolve() {
+        dissolved = true;
+        for (PipeNode member : members) {
+            if (member.getNetwork() == this) {
+                member.setNetwork(null);
+            }
+        }
+        members.clear();
+        membersByPosition.clear();
+        routeTable = null;
+    }
+
+    public boolean isDissolved() {
+        return dissolved;
+    }
+
+    public boolean isAwake() {
+        return awake;
+    }
+
+    public void setAwake(boolean awake) {
+        this.awake = awake;
+    }
+
+    /**
+     * @return the earliest time at which an item of this network reaches the end of its run.
+     */
+    public double getNextEventTime() {
+        return items.getNextEventTime();
+    }
+}
@@ -0,0 +1,104 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.Lists;
+import org.joml.Vector3ic;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.math.Rotation;
+import org.terasology.segmentedpaths.controllers.SegmentMapping;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cached view of a single pipe block in the pipe network graph: its segments and where each segment end leads.
+ */
+public final class PipeNode {
+    private final Vector3ic position;
+    private final EntityRef entity;
+    private final Rotation rotation;
+    private final float friction;
+    private final int capacity;
+    private final Map<Prefab, PipeJunction> startJunctions;
+    private final Map<Prefab, PipeJunction> endJunctions;
+    private final List<PipeJunction> junctions = Lists.newArrayList();
+
+    private PipeNetwork network;
+    private boolean valid = true;
+
+    public PipeNode(Vector3ic position, EntityRef entity, Rotation rotation, float friction, int capacity,
+                    Map<Prefab, PipeJunction> startJunctions, Map<Prefab, PipeJunction> endJunctions) {
+        this.position = position;
+        this.entity = entity;
+        this.rotation = rotation;
+        this.friction = friction;
+        this.capacity = capacity;
+        this.startJunctions = startJunctions;
+        this.endJunctions = endJunctions;
+        this.junctions.addAll(startJunctions.values());
+        this.junctions.addAll(endJunctions.values());
+    }
+
+    public Vector3ic getPosition() {
+        return position;
+    }
+
+    public EntityRef getEntity() {
+        return entity;
+    }
+
+    public Rotation getRotation() {
+        return rotation;
+    }
+
+    public float getFriction() {
+        return friction;
+    }
+
+    /**
+     * @return the number of items the block holds at most, or 0 if it is unlimited.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param prefab the path prefab the item is following in this block.
+     * @param end the end of the segment the item has reached.
+     * @return the junction at that end, or null if the prefab is not a segment of this block.
+     */
+    public PipeJunction getJunction(Prefab prefab, SegmentMapping.SegmentEnd end) {
+        return end == SegmentMapping.SegmentEnd.START ? startJunctions.get(prefab) : endJunctions.get(prefab);
+    }
+
+    /**
+     * @return the junctions at both ends of every segment of this block.
+     */
+    public List<PipeJunction> getJunctions() {
+        return junctions;
+    }
+
+    /**
+     * @return the network this block belongs to, or null if it has not been resolved yet.
+     */
+    public PipeNetwork getNetwork() {
+        return network;
+    }
+
+    public void setNetwork(PipeNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * @return false once the block or one of its neighbours changed and this node was dropped from the graph.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+}
@@ -0,0 +1,184 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joml.Vector3ic;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.itempipes.components.PipeConnectionComponent;
+import org.terasology.module.inventory.components.InventoryComponent;
+import org.terasology.segmentedpaths.controllers.SegmentMapping;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Shortest paths from every junction of a network to every inventory the network delivers to.
+ * <p>
+ * For each junction the reachable inventories are listed nearest first, together with the transition to take towards
+ * each of them. The table belongs to one network and is dropped with it, so a topology change only recomputes the
+ * routes of the networks around the changed block.
+ */
+public final class PipeRouteTable {
+    private static final PipeRoute[] NO_ROUTES = new PipeRoute[0];
+
+    private final Map<PipeJunction, PipeRoute[]> routes;
+
+    private PipeRouteTable(Map<PipeJunction, PipeRoute[]> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * @param junction a junction of the network.
+     * @return the inventories reachable from the junction, nearest first.
+     */
+    public PipeRoute[] getRoutes(PipeJunction junction) {
+        return routes.getOrDefault(junction, NO_ROUTES);
+    }
+
+    /**
+     * Runs a shortest path search backwards from every junction handing items to an inventory.
+     *
+     * @param members the blocks of the network.
+     * @return the routes of every junction of the network.
+     */
+    public static PipeRouteTable build(List<PipeNode> members) {
+        Map<Vector3ic, PipeNode> nodes = Maps.newHashMap();
+        Map<PipeJunction, Integer> indices = Maps.newHashMap();
+        List<PipeJunction> junctions = Lists.newArrayList();
+        for (PipeNode member : members) {
+            nodes.put(member.getPosition(), member);
+            for (PipeJunction junction : member.getJunctions()) {
+                indices.put(junction, junctions.size());
+                junctions.add(junction);
+            }
+        }
+
+        // incoming[k] lists the junctions whose transitions lead to an item reaching junction k
+        List<List<Hop>> incoming = Lists.newArrayList();
+        for (int i = 0; i < junctions.size(); i++) {
+            incoming.add(Lists.newArrayList());
+        }
+        List<Integer> sinks = Lists.newArrayList();
+        for (int j = 0; j < junctions.size(); j++) {
+            PipeJunction junction = junctions.get(j);
+            if (junction.size() == 0) {
+                EntityRef neighbor = junction.getNeighborEntity();
+                if (neighbor.hasComponent(PipeConnectionComponent.class) && neighbor.hasComponent(InventoryComponent.class)) {
+                    sinks.add(j);
+                }
+                continue;
+            }
+            for (int t = 0; t < junction.size(); t++) {
+                PipeTransition transition = junction.getTransition(t);
+                PipeNode next = nodes.get(transition.getPosition());
+                PipeJunction reached = next == null ? null : next.getJunction(transition.getPrefab(),
+                    transition.isReverse() ? SegmentMapping.SegmentEnd.START : SegmentMapping.SegmentEnd.END);
+                Integer k = reached == null ? null : indices.get(reached);
+                if (k != null) {
+                    incoming.get(k).add(new Hop(j, transition));
+                }
+            }
+        }
+
+        Map<PipeJunction, List<PipeRoute>> found = Maps.newHashMap();
+        float[] distance = new float[junctions.size()];
+        PipeTransition[] via = new PipeTransition[junctions.size()];
+        for (int sink : sinks) {
+            EntityRef target = junctions.get(sink).getNeighborEntity();
+            Arrays.fill(distance, Float.POSITIVE_INFINITY);
+            Arrays.fill(via, null);
+            distance[sink] = 0;
+            PriorityQueue<Visit> open = new PriorityQueue<>(Comparator.comparingDouble(visit -> visit.distance));
+            open.add(new Visit(sink, 0));
+            while (!open.isEmpty()) {
+                Visit visit = open.poll();
+                if (visit.distance > distance[visit.junction]) {
+                    continue;
+                }
+                for (Hop hop : incoming.get(visit.junction)) {
+                    float candidate = visit.distance + hop.transition.getMaxDistance();
+                    if (candidate < distance[hop.from]) {
+                        distance[hop.from] = candidate;
+                        via[hop.from] = hop.transition;
+                        open.add(new Visit(hop.from, candidate));
+                    }
+                }
+            }
+            for (int j = 0; j < junctions.size(); j++) {
+                if (via[j] != null) {
+                    found.computeIfAbsent(junctions.get(j), key -> Lists.newArrayList())
+                        .add(new PipeRoute(target, distance[j], via[j]));
+                }
+            }
+        }
+
+        Map<PipeJunction, PipeRoute[]> routes = Maps.newHashMap();
+        for (Map.Entry<PipeJunction, List<PipeRoute>> entry : found.entrySet()) {
+            PipeRoute[] sorted = entry.getValue().toArray(NO_ROUTES);
+            Arrays.sort(sorted, Comparator.comparingDouble(PipeRoute::getDistance));
+            routes.put(entry.getKey(), sorted);
+        }
+        return new PipeRouteTable(routes);
+    }
+
+    /**
+     * The way from a junction to one inventory.
+     */
+    public static final class PipeRoute {
+        private final EntityRef sink;
+        private final float distance;
+        private final PipeTransition transition;
+
+        private PipeRoute(EntityRef sink, float distance, PipeTransition transition) {
+            this.sink = sink;
+            this.distance = distance;
+            this.transition = transition;
+        }
+
+        /**
+         * @return the block holding the inventory.
+         */
+        public EntityRef getSink() {
+            return sink;
+        }
+
+        /**
+         * @return the length of pipe left to travel to the inventory.
+         */
+        public float getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return the transition to take at the junction.
+         */
+        public PipeTransition getTransition() {
+            return transition;
+        }
+    }
+
+    private static final class Hop {
+        private final int from;
+        private final PipeTransition transition;
+
+        private Hop(int from, PipeTransition transition) {
+            this.from = from;
+            this.transition = transition;
+        }
+    }
+
+    private static final class Visit {
+        private final int junction;
+        private final float distance;
+
+        private Visit(int junction, float distance) {
+            this.junction = junction;
+            this.distance = distance;
+        }
+    }
+}
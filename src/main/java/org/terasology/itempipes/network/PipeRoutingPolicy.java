@@ -0,0 +1,55 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.entitySystem.entity.EntityRef;
+
+/**
+ * Picks the transition an item follows at a junction with more than one way out.
+ * <p>
+ * A policy is created for a junction when the junction is built and called directly for every item passing it, so
+ * implementations may keep per-junction state but must not do expensive lookups per call.
+ */
+public interface PipeRoutingPolicy {
+
+    /**
+     * @param junction the junction the item has reached, with at least two transitions.
+     * @param item the item being routed, or {@link EntityRef#NULL} if it is not known.
+     * @return the transition to follow, or null to leave the decision to the {@code PipeMappingEvent} handlers.
+     */
+    PipeTransition route(PipeJunction junction, EntityRef item);
+
+    /**
+     * Called instead of {@link #route(PipeJunction, EntityRef)} when the kind of the item is already known, which is
+     * always the case for items of the batched transport, even while their entity is parked.
+     *
+     * @param junction the junction the item has reached, with at least two transitions.
+     * @param item the item being routed, or {@link EntityRef#NULL} if it is not known.
+     * @param kind the kind of the item as interned by {@link PipeItemKinds}, or {@link PipeItemKinds#UNKNOWN}.
+     * @return the transition to follow, or null to leave the decision to the {@code PipeMappingEvent} handlers.
+     */
+    default PipeTransition route(PipeJunction junction, EntityRef item, int kind) {
+        return route(junction, item);
+    }
+
+    /**
+     * @return whether the policy may route items off the main thread, while the junctions of other networks are
+     *     routed at the same time. Otherwise items of the parallel transport are routed on the main thread.
+     */
+    default boolean isConcurrent() {
+        return true;
+    }
+
+    /**
+     * Creates the policy for one junction of a block carrying the component the factory is registered for.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * @param block the block the junction leads into.
+         * @param junction the junction the policy is created for.
+         * @return the policy, or null if the block does not route items at this junction.
+         */
+        PipeRoutingPolicy create(EntityRef block, PipeJunction junction);
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.joml.Vector3ic;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.math.Side;
+
+/**
+ * A precomputed hop from the end of one pipe segment onto a segment of the neighbouring pipe block.
+ */
+public final class PipeTransition {
+    private final Vector3ic position;
+    private final EntityRef entity;
+    private final Prefab prefab;
+    private final Side outputSide;
+    private final boolean reverse;
+    private final float maxDistance;
+    private final int capacity;
+
+    /**
+     * @param capacity the capacity of the pipe the item moves into, or 0 if it is unlimited.
+     */
+    public PipeTransition(Vector3ic position, EntityRef entity, Prefab prefab, Side outputSide, boolean reverse,
+                          float maxDistance, int capacity) {
+        this.position = position;
+        this.entity = entity;
+        this.prefab = prefab;
+        this.outputSide = outputSide;
+        this.reverse = reverse;
+        this.maxDistance = maxDistance;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the position of the block the item moves into.
+     */
+    public Vector3ic getPosition() {
+        return position;
+    }
+
+    public EntityRef getEntity() {
+        return entity;
+    }
+
+    public Prefab getPrefab() {
+        return prefab;
+    }
+
+    /**
+     * @return the side through which the item will leave the next block when following this segment.
+     */
+    public Side getOutputSide() {
+        return outputSide;
+    }
+
+    /**
+     * @return true if the next segment is entered at its end and travelled backwards (sign -1).
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    public float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return the number of items the block the item moves into holds at most, as of when the graph was built, or 0
+     *     if it is unlimited.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,24 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.utilities.random.Random;
+
+/**
+ * Sends every item to a random output side, each side being equally likely.
+ */
+public class RandomRoutingPolicy implements PipeRoutingPolicy {
+    private final PipeTransition[] transitions;
+    private final Random random;
+
+    public RandomRoutingPolicy(PipeJunction junction, Random random) {
+        this.transitions = junction.getSideTransitions();
+        this.random = random;
+    }
+
+    @Override
+    public PipeTransition route(PipeJunction junction, EntityRef item) {
+        return transitions[random.nextInt(transitions.length)];
+    }
+}
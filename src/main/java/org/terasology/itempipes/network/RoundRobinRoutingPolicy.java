@@ -0,0 +1,24 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.entitySystem.entity.EntityRef;
+
+/**
+ * Sends consecutive items to the output sides in turn.
+ */
+public class RoundRobinRoutingPolicy implements PipeRoutingPolicy {
+    private final PipeTransition[] transitions;
+    private int next;
+
+    public RoundRobinRoutingPolicy(PipeJunction junction) {
+        this.transitions = junction.getSideTransitions();
+    }
+
+    @Override
+    public PipeTransition route(PipeJunction junction, EntityRef item) {
+        PipeTransition transition = transitions[next];
+        next = (next + 1) % transitions.length;
+        return transition;
+    }
+}
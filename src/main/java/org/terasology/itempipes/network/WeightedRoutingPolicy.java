@@ -0,0 +1,47 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes.network;
+
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.math.Side;
+import org.terasology.engine.utilities.random.Random;
+
+import java.util.Map;
+
+/**
+ * Sends items to a random output side, each side being picked in proportion to its weight. Sides without a weight are
+ * never picked unless no side has one.
+ */
+public class WeightedRoutingPolicy implements PipeRoutingPolicy {
+    private final PipeTransition[] transitions;
+    private final float[] cumulativeWeights;
+    private final Random random;
+
+    public WeightedRoutingPolicy(PipeJunction junction, Map<Side, Float> weights, Random random) {
+        this.transitions = junction.getSideTransitions();
+        this.random = random;
+        this.cumulativeWeights = new float[transitions.length];
+        float total = 0;
+        for (int i = 0; i < transitions.length; i++) {
+            Float weight = weights.get(transitions[i].getOutputSide());
+            total += weight != null && weight > 0 ? weight : 0;
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0) {
+            for (int i = 0; i < transitions.length; i++) {
+                cumulativeWeights[i] = i + 1;
+            }
+        }
+    }
+
+    @Override
+    public PipeTransition route(PipeJunction junction, EntityRef item) {
+        float pick = cumulativeWeights[cumulativeWeights.length - 1] * random.nextFloat();
+        for (int i = 0; i < cumulativeWeights.length - 1; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return transitions[i];
+            }
+        }
+        return transitions[transitions.length - 1];
+    }
+}
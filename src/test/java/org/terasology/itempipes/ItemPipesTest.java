@@ -5,6 +5,7 @@ package org.terasology.itempipes;
 import org.joml.Vector3f;
 import org.joml.Vector3i;
 import org.joml.Vector3ic;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.terasology.engine.core.Time;
@@ -13,6 +14,7 @@ import org.terasology.engine.entitySystem.entity.EntityRef;
 import org.terasology.engine.entitySystem.prefab.Prefab;
 import org.terasology.engine.integrationenvironment.ModuleTestingHelper;
 import org.terasology.engine.logic.health.EngineDamageTypes;
+import org.terasology.engine.logic.inventory.ItemComponent;
 import org.terasology.engine.logic.inventory.events.DropItemEvent;
 import org.terasology.engine.math.Direction;
 import org.terasology.engine.math.Side;
@@ -25,16 +27,31 @@ import org.terasology.engine.world.block.BlockManager;
 import org.terasology.engine.world.block.BlockRegion;
 import org.terasology.engine.world.block.family.BlockFamily;
 import org.terasology.engine.world.block.family.BlockPlacementData;
+import org.terasology.engine.world.block.items.BlockItemComponent;
 import org.terasology.engine.world.block.items.BlockItemFactory;
+import org.terasology.engine.world.chunks.Chunks;
+import org.terasology.itempipes.blocks.PipeBlockFamily;
+import org.terasology.itempipes.components.PipeComponent;
+import org.terasology.itempipes.components.PipeDestinationRoutingComponent;
+import org.terasology.itempipes.components.PipeFilterMappingComponent;
 import org.terasology.itempipes.components.PipeFollowingComponent;
+import org.terasology.itempipes.components.PipeItemsComponent;
+import org.terasology.itempipes.controllers.BlockMotionSystem;
+import org.terasology.itempipes.controllers.PipePersistenceSystem;
 import org.terasology.itempipes.controllers.PipeSystem;
 import org.terasology.module.health.events.DoDamageEvent;
 import org.terasology.module.inventory.components.InventoryComponent;
+import org.terasology.module.inventory.systems.InventoryManager;
+import org.terasology.segmentedpaths.components.PathFollowerComponent;
 import org.terasology.engine.integrationenvironment.jupiter.IntegrationEnvironment;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
@@ -43,6 +60,7 @@ public class ItemPipesTest {
 
     private BlockFamily itemPipesBlockFamily;
     private BlockFamily chestFamily;
+    private BlockFamily suctionFamily;
 
     @In
     private WorldProvider worldProvider;
@@ -55,6 +73,12 @@ public class ItemPipesTest {
     @In
     private PipeSystem pipeSystem;
     @In
+    private BlockMotionSystem blockMotionSystem;
+    @In
+    private PipePersistenceSystem pipePersistenceSystem;
+    @In
+    private InventoryManager inventoryManager;
+    @In
     private Time time;
     @In
     private ModuleTestingHelper helper;
@@ -64,6 +88,7 @@ public class ItemPipesTest {
         Block airBlock = blockManager.getBlock("engine:air");
         itemPipesBlockFamily = blockManager.getBlockFamily("ItemPipes:basicPipe");
         chestFamily = blockManager.getBlockFamily("CoreAdvancedAssets:Chest.LEFT");
+        suctionFamily = blockManager.getBlockFamily("ItemPipes:suction");
 
         BlockRegion region = new BlockRegion(0, 0, 0).expand(5, 5, 5);
         for (Vector3ic pos : region) {
@@ -72,6 +97,17 @@ public class ItemPipesTest {
         }
     }
 
+    @AfterEach
+    public void restoreModes() {
+        // also runs when a test fails, so the modes a test switches on never leak into the next test
+        blockMotionSystem.setVirtualItems(false);
+        blockMotionSystem.setParallelTransport(false);
+        blockMotionSystem.setBatchedTransport(false);
+        blockMotionSystem.setReplicatedTransitions(false);
+        blockMotionSystem.setLodDistance(0);
+        pipeSystem.setBundling(false);
+    }
+
     @Test
     public void connectionTest() {
         Vector3ic pipeLocation = new Vector3i(0, 0, 0);
@@ -95,6 +131,33 @@ public class ItemPipesTest {
         }
     }
 
+    @Test
+    public void placePipesTest() {
+        Vector3ic existing = new Vector3i(-2, 0, 0);
+        Vector3ic chest = new Vector3i(2, 0, 0);
+        List<Vector3ic> placed = Arrays.asList(new Vector3i(-1, 0, 0), new Vector3i(0, 0, 0), new Vector3i(1, 0, 0),
+            new Vector3i(0, 1, 0));
+
+        placePipe(existing);
+        placeChest(chest);
+        for (Vector3ic position : placed) {
+            helper.forceAndWaitForGeneration(position);
+        }
+        pipeSystem.placePipes((PipeBlockFamily) itemPipesBlockFamily, placed);
+
+        List<Vector3ic> connectable = Arrays.asList(existing, chest, placed.get(0), placed.get(1), placed.get(2),
+            placed.get(3));
+        for (Vector3ic pipe : Arrays.asList(existing, placed.get(0), placed.get(1), placed.get(2), placed.get(3))) {
+            byte expected = 0;
+            for (Side side : Side.values()) {
+                if (connectable.contains(new Vector3i(pipe).add(side.direction()))) {
+                    expected |= SideBitFlag.getSide(side);
+                }
+            }
+            assertEquals(expected, getConn(new Vector3i(pipe)), "connections of the pipe at " + pipe);
+        }
+    }
+
     @Test
     public void chestInputTest() {
         Vector3ic left = Direction.LEFT.asVector3i();
@@ -127,6 +190,380 @@ public class ItemPipesTest {
         assertTrue(foundDroppedItem);
     }
 
+    @Test
+    public void concurrentDeliveryTest() {
+        final int itemCount = 8;
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(left);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(Direction.LEFT.asVector3f()).add(Direction.UP.asVector3f()),
+                "ItemPipes:suction");
+            assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+        }
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        final long timeout = time.getGameTimeInMs() + 3000;
+        helper.runWhile(() -> countItems(chestEntity) == 0 && time.getGameTimeInMs() < timeout);
+
+        // all items travel in lockstep, so the tick delivering the first one has to deliver every one of them.
+        assertEquals(itemCount, countItems(chestEntity));
+    }
+
+    @Test
+    public void bundledDeliveryTest() {
+        final int itemCount = 8;
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        pipeSystem.setBundling(true);
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(left);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(Direction.LEFT.asVector3f()).add(Direction.UP.asVector3f()),
+                "ItemPipes:suction");
+            PipeSystem.InsertResult result = pipeSystem.insert(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f);
+            assertEquals(i == 0 ? PipeSystem.InsertResult.INSERTED : PipeSystem.InsertResult.MERGED, result);
+            assertEquals(i == 0, droppedItem.exists());
+        }
+        assertEquals(1, entityManager.getCountOfEntitiesWith(PipeFollowingComponent.class));
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        final long timeout = time.getGameTimeInMs() + 3000;
+        helper.runWhile(() -> countItems(chestEntity) == 0 && time.getGameTimeInMs() < timeout);
+
+        assertEquals(itemCount, countItems(chestEntity));
+    }
+
+    @Test
+    public void batchedDeliveryTest() {
+        final int itemCount = 4;
+        Vector3ic start = new Vector3i(-2, 0, 0);
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        blockMotionSystem.setBatchedTransport(true);
+        placePipe(start);
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(start);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(start).add(Direction.UP.asVector3f()), "ItemPipes:suction");
+            assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+        }
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        final long timeout = time.getGameTimeInMs() + 5000;
+        helper.runWhile(() -> countItems(chestEntity) < itemCount && time.getGameTimeInMs() < timeout);
+
+        assertEquals(itemCount, countItems(chestEntity));
+        // the network goes back to sleep once its last item left
+        final long nextCheck = time.getGameTimeInMs() + 100;
+        helper.runWhile(() -> time.getGameTimeInMs() < nextCheck);
+        assertTrue(blockMotionSystem.getAwakeNetworks().isEmpty());
+    }
+
+    @Test
+    public void virtualItemsDeliveryTest() {
+        final int itemCount = 4;
+        Vector3ic start = new Vector3i(-3, 0, 0);
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        blockMotionSystem.setVirtualItems(true);
+        placePipe(start);
+        placePipe(new Vector3i(-2, 0, 0));
+        placePipe(Direction.LEFT.asVector3i());
+        placePipe(new Vector3i());
+        placeChest(rChest);
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(start);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(start).add(Direction.UP.asVector3f()), "ItemPipes:suction");
+            assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+        }
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        blockMotionSystem.resetDeliveredItems();
+        boolean[] parked = new boolean[1];
+        final long timeout = time.getGameTimeInMs() + 8000;
+        helper.runWhile(() -> {
+            parked[0] |= blockMotionSystem.getInFlight() == itemCount
+                && entityManager.getCountOfEntitiesWith(PipeFollowingComponent.class) == 0;
+            return countItems(chestEntity) < itemCount && time.getGameTimeInMs() < timeout;
+        });
+
+        // the items travelled without entities and were recreated for the hand-off to the chest
+        assertTrue(parked[0]);
+        assertEquals(itemCount, countItems(chestEntity));
+        assertEquals(itemCount, blockMotionSystem.getDeliveredItems(chestEntity));
+    }
+
+    @Test
+    public void capacityTest() {
+        final int itemCount = 4;
+        Vector3ic start = new Vector3i(-2, 0, 0);
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        placePipe(start);
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+
+        EntityRef centerPipe = blockEntityRegistry.getBlockEntityAt(center);
+        PipeComponent pipeComponent = centerPipe.getComponent(PipeComponent.class);
+        pipeComponent.capacity = 1;
+        centerPipe.saveComponent(pipeComponent);
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(start);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(start).add(Direction.UP.asVector3f()), "ItemPipes:suction");
+            assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+        }
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        int[] maxOccupancy = new int[1];
+        final long timeout = time.getGameTimeInMs() + 10000;
+        helper.runWhile(() -> {
+            maxOccupancy[0] = Math.max(maxOccupancy[0], pipeSystem.getOccupancy(centerPipe));
+            return countItems(chestEntity) < itemCount && time.getGameTimeInMs() < timeout;
+        });
+
+        assertEquals(itemCount, countItems(chestEntity));
+        assertEquals(1, maxOccupancy[0]);
+    }
+
+    @Test
+    public void backPressureTest() {
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        BlockItemFactory blockItemFactory = new BlockItemFactory(entityManager);
+        int stacks = 0;
+        while (stacks < 100
+            && inventoryManager.giveItem(chestEntity, EntityRef.NULL, blockItemFactory.newInstance(itemPipesBlockFamily, 99))) {
+            stacks++;
+        }
+        int stored = countItems(chestEntity);
+
+        EntityRef droppedItem = dropBlockItem(new Vector3f(Direction.LEFT.asVector3f()).add(Direction.UP.asVector3f()),
+            "ItemPipes:suction");
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(left);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+
+        final long nextCheck = time.getGameTimeInMs() + 3000;
+        helper.runWhile(() -> time.getGameTimeInMs() < nextCheck);
+
+        // the item waits at the end of the pipe instead of being dropped
+        assertTrue(droppedItem.hasComponent(PipeFollowingComponent.class));
+        assertEquals(stored, countItems(chestEntity));
+
+        InventoryComponent inventory = chestEntity.getComponent(InventoryComponent.class);
+        inventoryManager.removeItem(chestEntity, EntityRef.NULL, inventory.itemSlots.get(0), true);
+        final long timeout = time.getGameTimeInMs() + 3000;
+        helper.runWhile(() -> droppedItem.hasComponent(PipeFollowingComponent.class) && time.getGameTimeInMs() < timeout);
+
+        assertTrue(chestEntity.getComponent(InventoryComponent.class).itemSlots.contains(droppedItem));
+    }
+
+    @Test
+    public void destinationRoutingTest() {
+        final int itemCount = 8;
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+        // a branch ending without any inventory
+        placePipe(new Vector3i(0, 0, 1));
+        placePipe(new Vector3i(0, 0, 2));
+
+        // junctions into a block opting in route towards the nearest inventory
+        blockEntityRegistry.getBlockEntityAt(center).addComponent(new PipeDestinationRoutingComponent());
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(left);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(Direction.LEFT.asVector3f()).add(Direction.UP.asVector3f()),
+                "ItemPipes:suction");
+            assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+        }
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        final long timeout = time.getGameTimeInMs() + 5000;
+        helper.runWhile(() -> countItems(chestEntity) < itemCount && time.getGameTimeInMs() < timeout);
+
+        assertEquals(itemCount, countItems(chestEntity));
+    }
+
+    @Test
+    public void persistenceRoundTripTest() {
+        Vector3ic start = new Vector3i(-2, 0, 0);
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+
+        placePipe(start);
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+
+        EntityRef droppedItem = dropBlockItem(new Vector3f(start).add(Direction.UP.asVector3f()), "ItemPipes:suction");
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(start);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+
+        final long nextCheck = time.getGameTimeInMs() + 500;
+        helper.runWhile(() -> time.getGameTimeInMs() < nextCheck);
+
+        // the item is recorded on its pipe and left out of the save
+        EntityRef pipe = droppedItem.getComponent(PathFollowerComponent.class).segmentMeta.association;
+        pipePersistenceSystem.storeItems();
+        PipeItemsComponent pipeItems = pipe.getComponent(PipeItemsComponent.class);
+        assertEquals(1, pipeItems.size());
+        assertEquals("block:" + suctionFamily.getURI(), pipeItems.kinds.get(0));
+        assertFalse(droppedItem.isPersistent());
+
+        PipeItemsComponent saved = new PipeItemsComponent();
+        saved.copyFrom(pipeItems);
+        pipePersistenceSystem.releaseItems();
+        assertFalse(pipe.hasComponent(PipeItemsComponent.class));
+
+        // records of items whose entity is still in the pipe are not restored again
+        PipeItemsComponent duplicate = new PipeItemsComponent();
+        duplicate.copyFrom(saved);
+        pipe.addComponent(duplicate);
+        assertFalse(pipe.hasComponent(PipeItemsComponent.class));
+        assertEquals(1, entityManager.getCountOfEntitiesWith(PipeFollowingComponent.class));
+
+        // loading the pipe without the item entity recreates the item from the record
+        droppedItem.destroy();
+        pipe.addComponent(saved);
+        assertFalse(pipe.hasComponent(PipeItemsComponent.class));
+        assertEquals(1, entityManager.getCountOfEntitiesWith(PipeFollowingComponent.class));
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        final long timeout = time.getGameTimeInMs() + 5000;
+        helper.runWhile(() -> countItems(chestEntity) == 0 && time.getGameTimeInMs() < timeout);
+
+        assertEquals(1, countItems(chestEntity));
+    }
+
+    @Test
+    public void chunkBoundaryFreezeTest() {
+        // far from the cleared region, the last pipe on the edge of its chunk and the chest in the next chunk. Moves
+        // further out until placing the pipes leaves the chunk of the chest unloaded.
+        Vector3ic right = Direction.RIGHT.asVector3i();
+        Vector3i last = new Vector3i();
+        Vector3i start = new Vector3i();
+        Vector3i rChest = new Vector3i();
+        for (int chunk = 32; ; chunk += 2) {
+            assertTrue(chunk < 64, "the chunks next to the pipes are always loaded");
+            last.set(right.x() > 0 ? chunk * Chunks.SIZE_X - 1 : (1 - chunk) * Chunks.SIZE_X, 0, 0);
+            start.set(right).mul(-2).add(last);
+            rChest.set(right).add(last);
+            placePipe(start);
+            placePipe(new Vector3i(right).negate().add(last));
+            placePipe(last);
+            if (!worldProvider.isBlockRelevant(rChest)) {
+                break;
+            }
+        }
+
+        EntityRef droppedItem = dropBlockItem(new Vector3f(start).add(Direction.UP.asVector3f()), "ItemPipes:suction");
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(start);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+
+        final long nextCheck = time.getGameTimeInMs() + 5000;
+        helper.runWhile(() -> time.getGameTimeInMs() < nextCheck);
+
+        // the item waits at the end of the last pipe instead of leaving it
+        assertTrue(droppedItem.hasComponent(PipeFollowingComponent.class));
+        assertEquals(blockEntityRegistry.getBlockEntityAt(last),
+            droppedItem.getComponent(PathFollowerComponent.class).segmentMeta.association);
+
+        // and resumes once the chunk ahead is loaded
+        placeChest(rChest);
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        final long timeout = time.getGameTimeInMs() + 3000;
+        helper.runWhile(() -> countItems(chestEntity) == 0 && time.getGameTimeInMs() < timeout);
+
+        assertEquals(1, countItems(chestEntity));
+    }
+
+    @Test
+    public void filterPipeTest() {
+        Vector3ic left = Direction.LEFT.asVector3i();
+        Vector3ic center = new Vector3i();
+        Vector3ic rChest = Direction.RIGHT.asVector3i();
+        Vector3ic branch = new Vector3i(0, 0, 1);
+        Vector3ic branchChest = new Vector3i(0, 0, 2);
+
+        placePipe(left);
+        placePipe(center);
+        placeChest(rChest);
+        placePipe(branch);
+        placeChest(branchChest);
+
+        // pipe items take the branch, everything else goes straight on
+        EntityRef centerPipe = blockEntityRegistry.getBlockEntityAt(center);
+        centerPipe.removeComponent(PipeRandomMappingComponent.class);
+        Side branchSide = null;
+        for (Side side : Side.values()) {
+            if (side.direction().equals(branch)) {
+                branchSide = side;
+            }
+        }
+        PipeFilterMappingComponent filter = new PipeFilterMappingComponent();
+        filter.filters.put(branchSide.name(), Collections.singletonList("block:" + itemPipesBlockFamily.getURI()));
+        centerPipe.addComponent(filter);
+
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(left);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, Side.RIGHT).iterator().next();
+        for (String id : Arrays.asList("ItemPipes:suction", "ItemPipes:basicPipe", "ItemPipes:suction", "ItemPipes:basicPipe")) {
+            EntityRef droppedItem = dropBlockItem(new Vector3f(Direction.LEFT.asVector3f()).add(Direction.UP.asVector3f()), id);
+            assertTrue(pipeSystem.insertIntoPipe(droppedItem, startPipe, Side.RIGHT, pathPrefab, 1f));
+        }
+
+        EntityRef chestEntity = blockEntityRegistry.getBlockEntityAt(rChest);
+        EntityRef branchChestEntity = blockEntityRegistry.getBlockEntityAt(branchChest);
+        final long timeout = time.getGameTimeInMs() + 5000;
+        helper.runWhile(() -> countItems(chestEntity) + countItems(branchChestEntity) < 4 && time.getGameTimeInMs() < timeout);
+
+        assertEquals(2, countItems(chestEntity, suctionFamily));
+        assertEquals(2, countItems(branchChestEntity, itemPipesBlockFamily));
+        assertEquals(4, countItems(chestEntity) + countItems(branchChestEntity));
+    }
+
     @Test
     public void minimumVelocityTest() {
         this.initialize();
@@ -166,6 +603,42 @@ public class ItemPipesTest {
         return Byte.valueOf(worldProvider.getBlock(location).getURI().getIdentifier().toString());
     }
 
+    /**
+     * Counts the items stored in an inventory, taking stack sizes into account.
+     *
+     * @param inventoryEntity entity with the inventory to count.
+     * @return number of items in the inventory.
+     */
+    private int countItems(EntityRef inventoryEntity) {
+        int count = 0;
+        for (EntityRef slot : inventoryEntity.getComponent(InventoryComponent.class).itemSlots) {
+            ItemComponent itemComponent = slot.getComponent(ItemComponent.class);
+            if (itemComponent != null) {
+                count += itemComponent.stackCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the block items of the given family stored in an inventory, taking stack sizes into account.
+     *
+     * @param inventoryEntity entity with the inventory to count.
+     * @param blockFamily family of the block items to count.
+     * @return number of matching items in the inventory.
+     */
+    private int countItems(EntityRef inventoryEntity, BlockFamily blockFamily) {
+        int count = 0;
+        for (EntityRef slot : inventoryEntity.getComponent(InventoryComponent.class).itemSlots) {
+            ItemComponent itemComponent = slot.getComponent(ItemComponent.class);
+            BlockItemComponent blockItemComponent = slot.getComponent(BlockItemComponent.class);
+            if (itemComponent != null && blockItemComponent != null && blockItemComponent.blockFamily == blockFamily) {
+                count += itemComponent.stackCount;
+            }
+        }
+        return count;
+    }
+
     /**
      * Deals damage to block on given location (simulates the situation when player destroys a block)
      *
@@ -195,7 +668,6 @@ public class ItemPipesTest {
                 new Vector3f())));
     }
 
-
     /**
      * Spawns and drops an block item on desired location.
      *
@@ -0,0 +1,216 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes;
+
+import com.google.common.collect.Lists;
+import com.sun.management.ThreadMXBean;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.engine.entitySystem.entity.EntityManager;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.entitySystem.prefab.Prefab;
+import org.terasology.engine.integrationenvironment.ModuleTestingHelper;
+import org.terasology.engine.integrationenvironment.jupiter.IntegrationEnvironment;
+import org.terasology.engine.logic.location.LocationComponent;
+import org.terasology.engine.math.Side;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.world.BlockEntityRegistry;
+import org.terasology.engine.world.WorldProvider;
+import org.terasology.engine.world.block.Block;
+import org.terasology.engine.world.block.BlockManager;
+import org.terasology.engine.world.block.BlockRegion;
+import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.engine.world.block.family.BlockPlacementData;
+import org.terasology.engine.world.block.items.BlockItemFactory;
+import org.terasology.itempipes.blocks.PipeBlockFamily;
+import org.terasology.itempipes.components.PipeFollowingComponent;
+import org.terasology.itempipes.controllers.BlockMotionSystem;
+import org.terasology.itempipes.controllers.PipeRandomSystem;
+import org.terasology.itempipes.controllers.PipeSystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures pipe transport on generated networks: delivered items per second, the time spent in
+ * {@link BlockMotionSystem#update} per tick and its allocation rate, for every transport mode.
+ * <p>
+ * The in-flight item counts default to 1k, 10k and 100k and can be overridden with the comma separated
+ * {@code itempipes.benchmark.items} system property.
+ */
+@Tag("benchmark")
+@IntegrationEnvironment(dependencies = {"ItemPipes", "CoreAdvancedAssets"}, worldGenerator = "unittest:empty")
+public class PipeTransportBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(PipeTransportBenchmark.class);
+
+    private static final float TICK = 0.05f;
+    private static final int MAX_TICKS = 20000;
+    private static final int DELIVERY_CHECK_INTERVAL = 20;
+
+    private BlockFamily pipeFamily;
+    private BlockFamily chestFamily;
+
+    @In
+    private WorldProvider worldProvider;
+    @In
+    private BlockManager blockManager;
+    @In
+    private BlockEntityRegistry blockEntityRegistry;
+    @In
+    private EntityManager entityManager;
+    @In
+    private PipeSystem pipeSystem;
+    @In
+    private BlockMotionSystem blockMotionSystem;
+    @In
+    private PipeRandomSystem pipeRandomSystem;
+    @In
+    private ModuleTestingHelper helper;
+
+    @BeforeEach
+    public void initialize() {
+        pipeFamily = blockManager.getBlockFamily("ItemPipes:basicPipe");
+        chestFamily = blockManager.getBlockFamily("CoreAdvancedAssets:Chest.LEFT");
+        pipeRandomSystem.setSeed(0);
+    }
+
+    @AfterEach
+    public void restoreModes() {
+        blockMotionSystem.setParallelTransport(false);
+        blockMotionSystem.setBatchedTransport(false);
+    }
+
+    @Test
+    public void straightLine() {
+        for (int length : new int[]{16, 64}) {
+            clear(new BlockRegion(0, 0, 0, length + 1, 0, 0));
+            place(chestFamily, new Vector3i(length, 0, 0));
+            List<Vector3ic> pipes = Lists.newArrayList();
+            for (int x = 0; x < length; x++) {
+                pipes.add(new Vector3i(x, 0, 0));
+            }
+            pipeSystem.placePipes((PipeBlockFamily) pipeFamily, pipes);
+            run("line-" + length, new Vector3i(0, 0, 0), Side.RIGHT);
+        }
+    }
+
+    @Test
+    public void junctionGrid() {
+        for (int size : new int[]{4, 8}) {
+            clear(new BlockRegion(0, 0, -1, size, 0, size));
+            List<Vector3ic> pipes = Lists.newArrayList();
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    pipes.add(new Vector3i(x, 0, z));
+                }
+                place(chestFamily, new Vector3i(x, 0, -1));
+                place(chestFamily, new Vector3i(x, 0, size));
+            }
+            for (int z = 0; z < size; z++) {
+                place(chestFamily, new Vector3i(size, 0, z));
+            }
+            pipeSystem.placePipes((PipeBlockFamily) pipeFamily, pipes);
+            run("grid-" + size, new Vector3i(0, 0, 0), Side.RIGHT);
+        }
+    }
+
+    private void run(String network, Vector3ic start, Side side) {
+        for (String mode : new String[]{"entity", "batched", "parallel"}) {
+            for (int items : itemCounts()) {
+                measure(network + "/" + mode, items, mode, start, side);
+            }
+        }
+    }
+
+    private void measure(String name, int itemCount, String mode, Vector3ic start, Side side) {
+        blockMotionSystem.setBatchedTransport(!mode.equals("entity"));
+        blockMotionSystem.setParallelTransport(mode.equals("parallel"));
+        pipeSystem.setBundling(false);
+        EntityRef startPipe = blockEntityRegistry.getBlockEntityAt(start);
+        Prefab pathPrefab = pipeSystem.findingMatchingPathPrefab(startPipe, side).iterator().next();
+        BlockItemFactory blockItemFactory = new BlockItemFactory(entityManager);
+        List<EntityRef> items = Lists.newArrayListWithCapacity(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            EntityRef item = blockItemFactory.newInstance(pipeFamily);
+            LocationComponent locationComponent = new LocationComponent();
+            locationComponent.setWorldPosition(new Vector3f(start));
+            item.addOrSaveComponent(locationComponent);
+            assertTrue(pipeSystem.insertIntoPipe(item, startPipe, side, pathPrefab, 1f));
+            items.add(item);
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long updateNanos = 0;
+        long maxTickNanos = 0;
+        long allocated = 0;
+        int ticks = 0;
+        int delivered = 0;
+        while (ticks < MAX_TICKS && delivered < itemCount) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long before = System.nanoTime();
+            blockMotionSystem.update(TICK);
+            long tickNanos = System.nanoTime() - before;
+            allocated += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            updateNanos += tickNanos;
+            maxTickNanos = Math.max(maxTickNanos, tickNanos);
+            ticks++;
+            if (ticks % DELIVERY_CHECK_INTERVAL == 0) {
+                delivered = countDelivered(items);
+            }
+        }
+        delivered = countDelivered(items);
+
+        double updateSeconds = updateNanos / 1e9;
+        logger.info("{} items={} ticks={} delivered={} delivered/s={} mean tick={}us max tick={}us alloc={}MB/s",
+            name, itemCount, ticks, delivered, Math.round(delivered / updateSeconds), updateNanos / ticks / 1000,
+            maxTickNanos / 1000, Math.round(allocated / updateSeconds / (1 << 20)));
+
+        for (EntityRef item : items) {
+            item.destroy();
+        }
+        blockMotionSystem.update(TICK);
+    }
+
+    private int countDelivered(List<EntityRef> items) {
+        int delivered = 0;
+        for (EntityRef item : items) {
+            if (!item.hasComponent(PipeFollowingComponent.class)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    private int[] itemCounts() {
+        String[] values = System.getProperty("itempipes.benchmark.items", "1000,10000,100000").split(",");
+        int[] counts = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            counts[i] = Integer.parseInt(values[i].trim());
+        }
+        return counts;
+    }
+
+    private void clear(BlockRegion region) {
+        Block airBlock = blockManager.getBlock("engine:air");
+        for (Vector3ic pos : region.expand(1, 1, 1)) {
+            helper.forceAndWaitForGeneration(pos);
+            worldProvider.setBlock(pos, airBlock);
+        }
+    }
+
+    private void place(BlockFamily family, Vector3ic location) {
+        helper.forceAndWaitForGeneration(location);
+        worldProvider.setBlock(location,
+            family.getBlockForPlacement(new BlockPlacementData(location, Side.FRONT, new Vector3f())));
+    }
+}
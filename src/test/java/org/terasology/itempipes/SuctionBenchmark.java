@@ -0,0 +1,99 @@
+// Copyright 2026 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.itempipes;
+
+import com.sun.management.ThreadMXBean;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.terasology.engine.core.Time;
+import org.terasology.engine.entitySystem.entity.EntityManager;
+import org.terasology.engine.entitySystem.entity.EntityRef;
+import org.terasology.engine.integrationenvironment.ModuleTestingHelper;
+import org.terasology.engine.integrationenvironment.jupiter.IntegrationEnvironment;
+import org.terasology.engine.logic.inventory.events.DropItemEvent;
+import org.terasology.engine.math.Side;
+import org.terasology.engine.registry.In;
+import org.terasology.engine.world.WorldProvider;
+import org.terasology.engine.world.block.Block;
+import org.terasology.engine.world.block.BlockManager;
+import org.terasology.engine.world.block.BlockRegion;
+import org.terasology.engine.world.block.family.BlockFamily;
+import org.terasology.engine.world.block.family.BlockPlacementData;
+import org.terasology.engine.world.block.items.BlockItemFactory;
+import org.terasology.itempipes.action.SuctionAction;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the allocations of the suction blocks per item contact, which have to stay at zero.
+ */
+@Tag("benchmark")
+@IntegrationEnvironment(dependencies = {"ItemPipes", "CoreAdvancedAssets"}, worldGenerator = "unittest:empty")
+public class SuctionBenchmark {
+    private static final int CONTACTS = 100000;
+
+    @In
+    private WorldProvider worldProvider;
+    @In
+    private BlockManager blockManager;
+    @In
+    private EntityManager entityManager;
+    @In
+    private SuctionAction suctionAction;
+    @In
+    private Time time;
+    @In
+    private ModuleTestingHelper helper;
+
+    @BeforeEach
+    public void initialize() {
+        Block airBlock = blockManager.getBlock("engine:air");
+        for (Vector3ic pos : new BlockRegion(0, 0, 0).expand(3, 3, 3)) {
+            helper.forceAndWaitForGeneration(pos);
+            worldProvider.setBlock(pos, airBlock);
+        }
+    }
+
+    @Test
+    public void contactAllocation() {
+        place(blockManager.getBlockFamily("ItemPipes:suction"), new Vector3i());
+        place(blockManager.getBlockFamily("ItemPipes:basicPipe"), new Vector3i(1, 0, 0));
+        EntityRef droppedItem = new BlockItemFactory(entityManager).newInstance(blockManager.getBlockFamily("ItemPipes:suction"));
+        droppedItem.send(new DropItemEvent(new Vector3f(0, 3, 0)));
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threadBean instanceof ThreadMXBean
+                && ((ThreadMXBean) threadBean).isThreadAllocatedMemorySupported(),
+            "per-thread allocation counters are not available on this JVM");
+        ThreadMXBean threads = (ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+        Vector3f impulse = new Vector3f();
+        long now = time.getGameTimeInMs();
+        for (int i = 0; i < CONTACTS; i++) {
+            suctionAction.pull(droppedItem, now, impulse);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CONTACTS; i++) {
+            suctionAction.pull(droppedItem, now, impulse);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(suctionAction.pull(droppedItem, now, impulse));
+        assertEquals(0, allocated / CONTACTS, "bytes allocated per contact: " + (double) allocated / CONTACTS);
+    }
+
+    private void place(BlockFamily family, Vector3ic location) {
+        helper.forceAndWaitForGeneration(location);
+        worldProvider.setBlock(location,
+            family.getBlockForPlacement(new BlockPlacementData(location, Side.FRONT, new Vector3f())));
+    }
+}